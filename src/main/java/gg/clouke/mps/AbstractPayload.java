@@ -1,20 +1,28 @@
 package gg.clouke.mps;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import gg.acai.acava.collect.maps.FixedSizeHashMap;
 import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.codec.BsonBridge;
 import gg.clouke.mps.codec.Codec;
 import org.bson.Document;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
  * An abstract payload which represents payload data that can be used to send data in a message.
  * The payload is a collection of key-value pairs.
  *
+ * <p>Values are either raw strings, or nested values which are stored as native BSON
+ * documents & arrays, see {@link Payload#withNestedParameter(String, Object)}.
+ *
  * The payload is limited to 16MB in size.
  *
  * @author Clouke
@@ -62,17 +70,56 @@ public abstract class AbstractPayload implements Closeable {
     };
 
   protected final Map<String, String> parameters;
+  protected final Map<String, Object> nested;
 
   public AbstractPayload(String json) {
     this.parameters = DECODER.encode(json);
+    this.nested = new HashMap<>();
   }
 
+  /**
+   * Reads the payload straight from a document, without re-parsing it from Json.
+   * String values become raw parameters, every other value is kept as a nested BSON value.
+   *
+   * @param document the document to read.
+   */
   public AbstractPayload(Document document) {
-    this(document.toJson());
+    this(new HashMap<>(), new HashMap<>());
+    read(document);
   }
 
   public AbstractPayload() {
-    this.parameters = new FixedSizeHashMap<>(MAX_SIZE);
+    this(new FixedSizeHashMap<>(MAX_SIZE), new FixedSizeHashMap<>(MAX_SIZE));
+  }
+
+  /**
+   * Constructs a payload backed by the given maps.
+   *
+   * @param parameters the map holding the raw parameters.
+   * @param nested the map holding the nested values.
+   */
+  protected AbstractPayload(Map<String, String> parameters, Map<String, Object> nested) {
+    this.parameters = parameters;
+    this.nested = nested;
+  }
+
+  /**
+   * Reads the entries of a document into this payload.
+   * String values become raw parameters, every other value is kept as a nested BSON value.
+   *
+   * @param document the document to read.
+   */
+  protected void read(Document document) {
+    synchronized (parameters) {
+      for (Map.Entry<String, Object> entry : document.entrySet()) {
+        Object value = entry.getValue();
+        if (value instanceof String) {
+          parameters.put(entry.getKey(), (String) value);
+        } else {
+          nested.put(entry.getKey(), value);
+        }
+      }
+    }
   }
 
   /**
@@ -85,10 +132,34 @@ public abstract class AbstractPayload implements Closeable {
     synchronized (parameters) {
       Document document = new Document();
       document.putAll(parameters);
+      document.putAll(nested);
       return document;
     }
   }
 
+  /**
+   * Copies the raw & nested values of the payload, without building its document yet.
+   * The copy is cheap to take on the enqueuing thread, and builds a fresh document each time
+   * it is called, so the payload can be changed or reused once the copy was taken.
+   *
+   * @return builds the payload as a document from the copied values.
+   */
+  @Nonnull
+  Supplier<Document> snapshot() {
+    Map<String, String> parameters;
+    Map<String, Object> nested;
+    synchronized (this.parameters) {
+      parameters = new HashMap<>(this.parameters);
+      nested = this.nested.isEmpty() ? Collections.emptyMap() : new HashMap<>(this.nested);
+    }
+    return () -> {
+      Document document = new Document();
+      document.putAll(parameters);
+      document.putAll(nested);
+      return document;
+    };
+  }
+
   /**
    * Gets the Payload as a {@link Map} of {@link String} and {@link Object}
    *
@@ -99,21 +170,22 @@ public abstract class AbstractPayload implements Closeable {
     Map<String, Object> map = new FixedSizeHashMap<>(MAX_SIZE);
     synchronized (parameters) {
       map.putAll(parameters);
+      map.putAll(nested);
     }
     return map;
   }
 
   /**
-   * Gets the size of the payload entries.
+   * Gets the size of the payload entries, including nested values.
    *
    * @return the size of the payload entries.
    */
   public int size() {
-    return parameters.size();
+    return parameters.size() + nested.size();
   }
 
   /**
-   * Returns a stream of the payload entries.
+   * Returns a stream of the raw payload entries, nested values are not included.
    *
    * @return a stream of the payload entries.
    */
@@ -163,7 +235,9 @@ public abstract class AbstractPayload implements Closeable {
   @Override
   public String toString() {
     synchronized (parameters) {
-      return CODEC.encode(parameters);
+      if (nested.isEmpty())
+        return CODEC.encode(parameters);
+      return GSON.toJson(asJsonTree());
     }
   }
 
@@ -175,12 +249,26 @@ public abstract class AbstractPayload implements Closeable {
   @Nonnull
   public String toPrettyJson() {
     synchronized (parameters) {
+      if (nested.isEmpty())
+        return GsonSpec.getPrettyPrintingGson()
+          .toJson(parameters, GsonSpec.getPayloadToken()
+            .getType());
       return GsonSpec.getPrettyPrintingGson()
-        .toJson(parameters, GsonSpec.getPayloadToken()
-          .getType());
+        .toJson(asJsonTree());
     }
   }
 
+  /**
+   * Converts the raw & nested values of the payload to a single Json tree.
+   *
+   * @return the payload as a Json tree.
+   */
+  private JsonObject asJsonTree() {
+    JsonObject tree = BsonBridge.toJson(nested).getAsJsonObject();
+    parameters.forEach(tree::addProperty);
+    return tree;
+  }
+
   /**
    * Closes the payload and clears the parameters.
    */
@@ -188,6 +276,7 @@ public abstract class AbstractPayload implements Closeable {
   public void close() {
     synchronized (parameters) {
       parameters.clear();
+      nested.clear();
     }
   }
 
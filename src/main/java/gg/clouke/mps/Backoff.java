@@ -0,0 +1,90 @@
+package gg.clouke.mps;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A capped exponential backoff with full jitter, used between reconnect & delivery attempts.
+ *
+ * <p>The ceiling doubles with each consecutive attempt, starting at the base delay, until it
+ * reaches the maximum delay. Each delay is picked at random between zero and the ceiling, so
+ * that nodes losing their connection at the same time do not reconnect in lockstep.
+ *
+ * <p>Not thread-safe, each reconnecting thread holds its own instance.
+ *
+ * @author Clouke
+ * @since 19.10.2026 16:31
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Backoff {
+
+  private final long base;
+  private final long max;
+  private int attempts;
+
+  /**
+   * Constructs a new backoff.
+   *
+   * @param base the ceiling of the first delay in milliseconds.
+   * @param max the maximum ceiling in milliseconds.
+   */
+  Backoff(long base, long max) {
+    this.base = Math.max(1L, base);
+    this.max = Math.max(this.base, max);
+  }
+
+  /**
+   * Gets the delay before the next attempt, and increases the ceiling of the following one.
+   *
+   * @return the delay in milliseconds.
+   */
+  long next() {
+    return delay(base, max, ++attempts);
+  }
+
+  /**
+   * Gets the delay before an attempt, for callers which keep the amount of attempts elsewhere,
+   * e.g. in the database.
+   *
+   * @param base the ceiling of the first delay in milliseconds.
+   * @param max the maximum ceiling in milliseconds.
+   * @param attempt the number of the failed attempt, starting at 1.
+   * @return the delay in milliseconds.
+   */
+  static long delay(long base, long max, int attempt) {
+    base = Math.max(1L, base);
+    long ceiling = Math.min(Math.max(base, max), base << Math.min(Math.max(0, attempt - 1), 30));
+    return ThreadLocalRandom.current().nextLong(ceiling + 1L);
+  }
+
+  /**
+   * Sleeps for the delay before the next attempt.
+   *
+   * @return true if the delay elapsed, false if the thread was interrupted.
+   */
+  boolean sleep() {
+    try {
+      Thread.sleep(next());
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Resets the ceiling after a successful attempt.
+   */
+  void reset() {
+    attempts = 0;
+  }
+
+  /**
+   * Gets the amount of consecutive attempts since the last reset.
+   *
+   * @return the amount of attempts.
+   */
+  int attempts() {
+    return attempts;
+  }
+
+}
@@ -0,0 +1,73 @@
+package gg.clouke.mps;
+
+import gg.acai.acava.annotated.RequiredAnnotation;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  A subscriber which receives its payloads in batches, e.g. to write them to a database or cache in bulk.
+ *  A batch holds the payloads which arrived together in the change stream, up to the maximum size and
+ *  linger time the subscriber was registered with, in the order they were received.
+ * </p>
+ *
+ * <pre>
+ *  Create a subscriber class and annotate it with {@link Identifier}:
+ *   {@code
+ *    @Identifier("telemetry")
+ *    public class TelemetrySubscriber implements BatchSubscriber {
+ *      public void onMessages(List<Payload> payloads) {
+ *        repository.insertAll(payloads);
+ *      }
+ *    }
+ *  }
+ *
+ * <strong>Supports</strong> functional implementations:
+ *    {@code
+ *      client.subscribers()
+ *        .listenBatched("telemetry", 500, 20L, TimeUnit.MILLISECONDS,
+ *          payloads -> repository.insertAll(payloads));
+ *   }
+ * </pre>
+ *
+ * <p>If the subscriber throws, the whole batch is redelivered, or dead-lettered once it runs out of attempts.
+ * Redeliveries back off on the dispatch thread of the target, like those of a single payload: the dispatch
+ * lane of its priority class if lanes are enabled, the watcher thread otherwise. That thread stalls while
+ * the batch backs off, and other targets served by it wait meanwhile.
+ *
+ * @author Clouke
+ * @since 20.10.2026 00:31
+ * © mongo-pubsub - All Rights Reserved
+ */
+@FunctionalInterface
+@RequiredAnnotation(Identifier.class)
+public interface BatchSubscriber {
+
+  /**
+   * Called with a batch of payloads published
+   * with the same identifier as this subscriber.
+   *
+   * @param payloads the payloads which were published, never empty
+   */
+  void onMessages(List<Payload> payloads);
+
+  /**
+   * <p>Gets the identifier of this subscriber.</p>
+   *
+   * <strong>NOTE:</strong> If the subscriber is
+   * a functional implementation, this method must be overridden.
+   *
+   * @throws RuntimeException if the subscriber class is missing the {@link Identifier} annotation and has no overridden implementation of this method.
+   * @return the identifier of this subscriber
+   */
+  default String getIdentifier() {
+    Class<?> clazz = getClass();
+    if (clazz.isAnnotationPresent(Identifier.class))
+      return clazz
+              .getAnnotation(Identifier.class)
+              .value();
+
+    throw new RuntimeException("Subscriber class " + clazz.getName() + " is missing @Identifier annotation");
+  }
+
+}
@@ -0,0 +1,203 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gg.acai.acava.io.Closeable;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects the documents of {@link BatchSubscriber} targets into batches, one per target.
+ *
+ * <p>A batch is delivered once the watcher has no more changes at hand, i.e. a poll of the change
+ * stream came back empty, once it reaches the maximum size, or once its first document waited for
+ * the linger time, whichever comes first. Batches of a target are delivered one at a time, in the
+ * order their documents were received.
+ *
+ * <p>Batches which are due are handed back to the dispatch thread of their target rather than
+ * delivered by the linger timer or the watcher, so a failing batch is redelivered on the thread
+ * of its target, like a single payload. Its lock is held meanwhile, so a newer batch of the target
+ * waits until it succeeded or was dead-lettered, while the linger timer keeps serving other targets.
+ *
+ * @author Clouke
+ * @since 20.10.2026 00:42
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Batcher implements Closeable {
+
+  /**
+   * Shared by the batchers of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("BatchLinger-%d")
+    .setDaemon(true)
+    .build();
+
+  private final Subscribers subscribers;
+  private final BiConsumer<String, List<Document>> delivery;
+  private final BiConsumer<String, Runnable> handBack;
+  private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+  private ScheduledExecutorService linger;
+  private boolean closed;
+
+  /**
+   * Constructs a new batcher.
+   *
+   * @param subscribers the subscribers, holding the batch subscribers & their limits.
+   * @param delivery delivers a batch, by target.
+   * @param handBack runs a task on the dispatch thread of a target.
+   */
+  Batcher(Subscribers subscribers, BiConsumer<String, List<Document>> delivery,
+          BiConsumer<String, Runnable> handBack) {
+    this.subscribers = subscribers;
+    this.delivery = delivery;
+    this.handBack = handBack;
+  }
+
+  /**
+   * Adds a document to the batch of its target, if the target has a batch subscriber.
+   *
+   * @param target the target of the document.
+   * @param document the document.
+   * @return true if the document was batched, false if the target has no batch subscriber.
+   */
+  boolean add(String target, Document document) {
+    Subscribers.Batched batched = subscribers.batched(target);
+    if (batched == null)
+      return false;
+
+    Batch batch = batches.computeIfAbsent(target, t -> new Batch());
+    synchronized (batch) {
+      batch.documents.add(document);
+      if (batch.documents.size() >= batched.maxSize) {
+        flush(target, batch);
+      } else if (batch.documents.size() == 1) {
+        schedule(target, batch, batched.linger);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hands every pending batch back to the dispatch thread of its target, called once the watcher
+   * has no more changes at hand.
+   */
+  void flush() {
+    if (batches.isEmpty())
+      return;
+
+    batches.forEach((target, batch) -> {
+      long generation;
+      synchronized (batch) {
+        if (batch.documents.isEmpty())
+          return;
+        generation = batch.generation;
+      }
+      handBack.accept(target, () -> flush(target, batch, generation));
+    });
+  }
+
+  /**
+   * Delivers a batch on the calling thread, unless it was delivered since it was handed back.
+   *
+   * @param target the target of the batch.
+   * @param batch the batch.
+   * @param generation the generation of the batch when it was handed back.
+   */
+  private void flush(String target, Batch batch, long generation) {
+    synchronized (batch) {
+      if (batch.generation == generation)
+        flush(target, batch);
+    }
+  }
+
+  /**
+   * Delivers a batch, the lock of the batch must be held.
+   *
+   * @param target the target of the batch.
+   * @param batch the batch.
+   */
+  private void flush(String target, Batch batch) {
+    if (batch.documents.isEmpty())
+      return;
+
+    List<Document> documents = batch.documents;
+    batch.documents = new ArrayList<>();
+    batch.generation++;
+    try {
+      delivery.accept(target, documents);
+    } catch (RuntimeException e) {
+      e.printStackTrace(); // never stop the watcher
+    }
+  }
+
+  /**
+   * Schedules the delivery of a batch once its linger time elapsed, unless it was delivered before.
+   * The linger timer only hands the batch back to the dispatch thread of its target, and never
+   * delivers it itself.
+   *
+   * @param target the target of the batch.
+   * @param batch the batch.
+   * @param delay the linger time in milliseconds.
+   */
+  private void schedule(String target, Batch batch, long delay) {
+    long generation = batch.generation;
+    try {
+      linger().schedule(() -> handBack.accept(target, () -> flush(target, batch, generation)),
+        delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      flush(target, batch); // closing, deliver right away
+    }
+  }
+
+  /**
+   * Gets the linger timer, starting it on first use.
+   *
+   * @return the linger timer.
+   * @throws RejectedExecutionException if the batcher is closed.
+   */
+  private synchronized ScheduledExecutorService linger() {
+    if (closed)
+      throw new RejectedExecutionException("Batcher is closed.");
+    if (linger == null)
+      linger = Executors.newSingleThreadScheduledExecutor(FACTORY);
+    return linger;
+  }
+
+  /**
+   * Stops the linger timer, and delivers every pending batch on the calling thread.
+   */
+  @Override
+  public void close() {
+    ScheduledExecutorService linger;
+    synchronized (this) {
+      closed = true;
+      linger = this.linger;
+    }
+    if (linger != null)
+      linger.shutdownNow();
+    batches.forEach((target, batch) -> {
+      synchronized (batch) {
+        flush(target, batch);
+      }
+    });
+  }
+
+  /**
+   * The pending documents of a target.
+   */
+  private static final class Batch {
+    private List<Document> documents = new ArrayList<>();
+    private long generation;
+  }
+
+}
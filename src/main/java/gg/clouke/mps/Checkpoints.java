@@ -0,0 +1,80 @@
+package gg.clouke.mps;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+
+/**
+ * Persists the resume position of a node's {@link CollectionWatcher}.
+ *
+ * <p>Each node stores its last seen change stream resume token under its node id,
+ * allowing a restarted node to continue from where it stopped instead of skipping
+ * the payloads published while it was down.
+ *
+ * <p>Checkpoints are only written & read for nodes that have been given an explicit
+ * node id through {@link MongoClientBuilder#nodeId(String)}, since a generated id
+ * never survives a restart.
+ *
+ * @author Clouke
+ * @since 19.10.2026 10:12
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Checkpoints {
+
+  private final MongoCollection<Document> collection;
+  private final String nodeId;
+  private final boolean enabled;
+
+  /**
+   * Constructs a new checkpoint store.
+   *
+   * @param collection the collection holding the checkpoints.
+   * @param nodeId the id of this node.
+   * @param enabled whether checkpoints should be read & written.
+   */
+  Checkpoints(MongoCollection<Document> collection, String nodeId, boolean enabled) {
+    this.collection = collection;
+    this.nodeId = nodeId;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Loads the last stored resume token of this node.
+   *
+   * @return the resume token, or null if none is stored or checkpoints are disabled.
+   */
+  @Nullable
+  BsonDocument load() {
+    if (!enabled)
+      return null;
+
+    BsonDocument checkpoint = collection
+      .withDocumentClass(BsonDocument.class)
+      .find(Filters.eq("_id", nodeId))
+      .first();
+    if (checkpoint == null || !checkpoint.isDocument("token"))
+      return null;
+
+    return checkpoint.getDocument("token");
+  }
+
+  /**
+   * Stores the given resume token as the checkpoint of this node.
+   *
+   * @param token the resume token to store, ignored if null.
+   */
+  void save(@Nullable BsonDocument token) {
+    if (!enabled || token == null)
+      return;
+
+    collection.replaceOne(Filters.eq("_id", nodeId), new Document("_id", nodeId)
+      .append("token", token)
+      .append("time", new Date()), new ReplaceOptions().upsert(true));
+  }
+
+}
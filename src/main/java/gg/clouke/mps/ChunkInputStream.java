@@ -0,0 +1,167 @@
+package gg.clouke.mps;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An input stream reading the chunks of a streamed blob as they are written.
+ *
+ * <p>Chunks are fetched a few at a time in order, so only those are held in heap. When the
+ * next chunk has not been written yet, the stream polls for it, and gives up once no chunk
+ * arrived within the stall timeout. The stream ends at the terminal chunk of the publisher.
+ *
+ * @author Clouke
+ * @since 19.10.2026 19:27
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class ChunkInputStream extends InputStream {
+
+  private static final int PREFETCH = 4;
+  private static final long MIN_POLL = 5L;
+  private static final long MAX_POLL = 250L;
+
+  private final MongoCollection<Document> chunks;
+  private final ObjectId stream;
+  private final long stallTimeout;
+  private final Binary[] buffer = new Binary[PREFETCH];
+  private int buffered;
+  private int index;
+  private byte[] current;
+  private int position;
+  private int next;
+  private boolean ended;
+  private boolean closed;
+
+  /**
+   * Constructs a new chunk input stream.
+   *
+   * @param chunks the collection holding the chunks.
+   * @param stream the id of the stream to read.
+   * @param stallTimeout the maximum time in milliseconds to wait for the next chunk.
+   */
+  ChunkInputStream(MongoCollection<Document> chunks, ObjectId stream, long stallTimeout) {
+    this.chunks = chunks;
+    this.stream = stream;
+    this.stallTimeout = stallTimeout;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!ensureChunk())
+      return -1;
+    return current[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off)
+      throw new IndexOutOfBoundsException();
+    if (len == 0)
+      return 0;
+    if (!ensureChunk())
+      return -1;
+
+    int read = Math.min(len, current.length - position);
+    System.arraycopy(current, position, b, off, read);
+    position += read;
+    return read;
+  }
+
+  @Override
+  public int available() {
+    return current == null ? 0 : current.length - position;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    current = null;
+    buffered = index = 0;
+  }
+
+  /**
+   * Ensures the current chunk has bytes left to read, moving to the next chunk if needed.
+   *
+   * @return true if there are bytes to read, false if the stream ended.
+   * @throws IOException if the stream is closed, stalled or its publisher failed.
+   */
+  private boolean ensureChunk() throws IOException {
+    if (closed)
+      throw new IOException("Stream " + stream + " is closed.");
+
+    while (current == null || position >= current.length) {
+      if (index >= buffered) {
+        if (ended)
+          return false;
+        fetch();
+        continue;
+      }
+
+      current = buffer[index].getData();
+      buffer[index++] = null;
+      position = 0;
+    }
+    return true;
+  }
+
+  /**
+   * Fetches the next chunks in order, waiting for them to be written.
+   *
+   * @throws IOException if no chunk arrived within the stall timeout, or the publisher failed.
+   */
+  private void fetch() throws IOException {
+    buffered = index = 0;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stallTimeout);
+    long poll = MIN_POLL;
+    while (true) {
+      try (MongoCursor<Document> cursor = chunks.find(Filters.and(
+          Filters.eq("stream", stream),
+          Filters.gte("n", next)))
+        .sort(Sorts.ascending("n"))
+        .limit(PREFETCH)
+        .iterator()) {
+        while (cursor.hasNext()) {
+          Document chunk = cursor.next();
+          if (chunk.getInteger("n") != next)
+            break; // not written yet, fetch it on the next round
+
+          next++;
+          String error = chunk.getString("error");
+          if (error != null)
+            throw new IOException("Publisher of stream " + stream + " failed: " + error);
+          if (chunk.getBoolean("last", false)) {
+            ended = true;
+            break;
+          }
+          buffer[buffered++] = chunk.get("data", Binary.class);
+        }
+      }
+
+      if (buffered > 0 || ended)
+        return;
+
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0L)
+        throw new IOException("Stream " + stream + " stalled, no chunk received within " + stallTimeout + "ms.");
+
+      try {
+        Thread.sleep(Math.min(poll, TimeUnit.NANOSECONDS.toMillis(remaining) + 1L));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for stream " + stream);
+      }
+      poll = Math.min(MAX_POLL, poll << 1);
+    }
+  }
+
+}
@@ -1,17 +1,27 @@
 package gg.clouke.mps;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
 import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.changestream.ChangeStreamDocument;
 import com.mongodb.client.model.changestream.FullDocument;
 import com.mongodb.client.model.changestream.OperationType;
 import gg.acai.acava.io.Closeable;
-import gg.clouke.mps.codec.Codec;
+import gg.clouke.mps.stats.Metric;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
-import java.util.function.Consumer;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An observer that watches for changes in the publisher collection.
@@ -21,6 +31,11 @@ import java.util.function.Consumer;
  * changes in the publisher collection.
  * <p>Holds a {@link Waiter} which manipulates the executor thread to
  * wait for its next payload to be finished before closing the client.
+ * <p>Keeps track of the resume token of the last handled change, which is used
+ * to checkpoint the position of this watcher when the client is closed.
+ * <p>Failing payloads are isolated by the {@link Dispatcher}. If the stream fails, e.g. on a primary
+ * stepdown or a network error, it is reopened from the last resume token with a capped exponential
+ * backoff, configured through {@link MongoClientBuilder#reconnectBackoff(long, long, TimeUnit)}.
  *
  * @author Clouke
  * @since 24.02.2023 05:41
@@ -29,58 +44,260 @@ import java.util.function.Consumer;
 public class CollectionWatcher implements Closeable {
 
   /**
-   * Standard encoder converting a MongoDB document to a Json string.
+   * Shared by the watchers of all clients, keeping thread names unique per process.
    */
-  private static final Codec<Document, String> CODEC =
-    new Codec<Document, String>() {
-      @Override
-      public String encode(Document document) {
-        return document.toJson();
-      }
-    };
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setPriority(Thread.MAX_PRIORITY)
+    .setNameFormat("CollectionWatcher-%d")
+    .setUncaughtExceptionHandler(new ThreadInterrupter())
+    .build();
 
+  private final MongoPubSubClient client;
+  private final long reconnectBackoff;
+  private final long maxReconnectBackoff;
+  private final Bson watchFilter;
+  private final CursorTuner tuner;
+  private int batchSize;
+  private long maxAwaitTime;
   private final Thread executor;
   private final Waiter waiter;
+  private volatile BsonDocument resumeToken;
+  private volatile boolean running = true;
+  private volatile boolean draining;
 
   public CollectionWatcher(MongoPubSubClient client) {
-    ChangeStreamIterable<Document> observer = client.publishers()
-      .watch()
-      .fullDocument(FullDocument.UPDATE_LOOKUP);
+    this(client, new MongoClientBuilder());
+  }
+
+  /**
+   * Constructs a new watcher configured by the given builder.
+   *
+   * @param client the client owning this watcher.
+   * @param b the builder to configure the watcher.
+   */
+  CollectionWatcher(MongoPubSubClient client, MongoClientBuilder b) {
+    this.client = client;
+    this.reconnectBackoff = b.reconnectBackoff;
+    this.maxReconnectBackoff = b.maxReconnectBackoff;
+    this.watchFilter = b.watchFilter;
+    this.tuner = b.adaptiveMaxBatchSize > 0
+      ? new CursorTuner(b.adaptiveMinBatchSize, b.adaptiveMaxBatchSize, b.adaptiveMinAwaitTime, b.adaptiveMaxAwaitTime)
+      : null;
+    this.batchSize = tuner != null ? tuner.batchSize() : b.watchBatchSize;
+    this.maxAwaitTime = tuner != null ? tuner.awaitTime() : b.watchMaxAwaitTime;
+    this.resumeToken = client.checkpoints().load();
 
     /*
      * Set up the executor thread.
      */
-    ThreadFactory factory = new ThreadFactoryBuilder()
-      .setPriority(Thread.MAX_PRIORITY)
-      .setNameFormat("CollectionWatcher-%d")
-      .setUncaughtExceptionHandler(new ThreadInterrupter())
-      .build();
-
     waiter = new Waiter();
-    executor = factory.newThread(() ->
-      observer.forEach((Consumer<? super ChangeStreamDocument<Document>>)
-        change -> {
-          OperationType operation = change.getOperationType();
-          Document document = change.getFullDocument();
-          if (document == null)
-            return; // cannot handle null documents
-
-          if (operation == OperationType.INSERT) {
-            String parameters = CODEC.encode(document);
-            Payload payload = new Payload(parameters);
-            String target = document.getString("payload:target");
-            client.subscribers().dispatch(target, payload);
-            // TODO: Add to graph statistics
-            if (waiter.isAwaitTermination()) {
-              waiter.reset();
-              synchronized (waiter) {
-                waiter.notifyAll(); // notify the waiter
-              }
+    executor = FACTORY.newThread(this::observe);
+    executor.start();
+  }
+
+  /**
+   * Supervises the observing loop, reopening the stream from the last resume token if it fails,
+   * until this watcher is closed or it has caught up with the stream while draining.
+   *
+   * <p>Consecutive failures are spaced out by a capped exponential backoff with jitter.
+   * The stream is also reopened, without backoff, to apply the settings of the {@link CursorTuner},
+   * or the partitions of a rebalance.
+   */
+  private void observe() {
+    Backoff backoff = new Backoff(reconnectBackoff, maxReconnectBackoff);
+    long disconnectedAt = 0L;
+    while (running) {
+      boolean retuned = false;
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open()) {
+        if (disconnectedAt != 0L) {
+          client.metrics().increment(Metric.RECONNECTS);
+          client.metrics().add(Metric.DISCONNECTED_MILLIS, System.currentTimeMillis() - disconnectedAt);
+          disconnectedAt = 0L;
+        }
+        backoff.reset();
+        client.routing().start(); // join the partition group only once the join rebalance can be read
+        while (running) {
+          ChangeStreamDocument<Document> change = cursor.tryNext();
+          if (change != null) {
+            boolean rebalanced = handleOrReject(change);
+            resumeToken = change.getResumeToken(); // past the change, even if it was rejected
+            if (rebalanced) {
+              client.metrics().increment(Metric.REBALANCES);
+              retuned = true;
+              break; // admit the new partitions from here on
             }
+          } else {
+            client.dispatcher().idle(); // deliver the batches of the exhausted stream
+            if (draining)
+              return; // caught up with the stream, nothing left to drain
           }
-        }));
 
-    executor.start();
+          if (retune(cursor, change != null)) {
+            retuned = true;
+            break;
+          }
+        }
+      } catch (MongoException e) {
+        if (!running)
+          return; // interrupted while closing, the stream is no longer needed.
+
+        client.metrics().increment(Metric.STREAM_FAILURES);
+        System.err.println("Lost the change stream of " + executor.getName() + ", reconnecting: " + e.getMessage());
+      } catch (RuntimeException e) {
+        if (!running)
+          return;
+
+        client.metrics().increment(Metric.WATCHER_RESTARTS);
+        System.err.println("Restarting " + executor.getName() + " after failure: " + e);
+      }
+
+      if (retuned)
+        continue; // reopen right away with the new settings or partitions
+
+      if (disconnectedAt == 0L)
+        disconnectedAt = System.currentTimeMillis();
+      if (!backoff.sleep())
+        return;
+    }
+  }
+
+  /**
+   * Records a poll with the tuner, and takes over its settings if they changed.
+   *
+   * @param cursor the current cursor.
+   * @param change whether the poll returned a change.
+   * @return true if the stream should be reopened with the new settings, false otherwise.
+   */
+  private boolean retune(MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor, boolean change) {
+    if (tuner == null || !tuner.record(change, client.dispatcher().saturation(), System.nanoTime()))
+      return false;
+
+    BsonDocument token = cursor.getResumeToken();
+    if (token == null)
+      return false; // cannot reopen without missing changes, keep the current settings
+
+    resumeToken = token; // every change up to here was handled
+    batchSize = tuner.batchSize();
+    maxAwaitTime = tuner.awaitTime();
+    client.metrics().increment(Metric.CURSOR_RETUNES);
+    return true;
+  }
+
+  /**
+   * Opens the change stream cursor, resuming after the last known resume token if present.
+   *
+   * @return the change stream cursor.
+   * @throws MongoException if the stream could not be opened.
+   */
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+    BsonDocument token = resumeToken;
+    if (token != null) {
+      try {
+        return observer()
+          .resumeAfter(token)
+          .cursor();
+      } catch (MongoCommandException e) {
+        if (!isHistoryLost(e))
+          throw e;
+        // the resume token is no longer part of the oplog, continue from the current position.
+        System.err.println("Could not resume " + executor.getName() + " from its last position: " + e.getMessage());
+        resumeToken = null;
+      }
+    }
+
+    return observer().cursor();
+  }
+
+  /**
+   * Checks whether the given error means the stream can never be resumed from the token.
+   *
+   * @param e the error.
+   * @return true if the stream history is lost or the token is invalid, false otherwise.
+   */
+  static boolean isHistoryLost(MongoCommandException e) {
+    int code = e.getErrorCode();
+    return code == 260 // InvalidResumeToken
+      || code == 280 // ChangeStreamFatalError
+      || code == 286; // ChangeStreamHistoryLost
+  }
+
+  /**
+   * Creates a new change stream observer of the publisher collection.
+   *
+   * @return the change stream observer.
+   */
+  private ChangeStreamIterable<Document> observer() {
+    ChangeStreamIterable<Document> observer = client.watched()
+      .watch(pipeline())
+      .fullDocument(FullDocument.UPDATE_LOOKUP);
+    if (batchSize > 0)
+      observer.batchSize(batchSize);
+    if (maxAwaitTime > 0L)
+      observer.maxAwaitTime(maxAwaitTime, TimeUnit.MILLISECONDS);
+    return observer;
+  }
+
+  /**
+   * Builds the pipeline of the change stream, admitting the payloads routed to this node
+   * which match the watch filter, and every rebalance.
+   *
+   * @return the pipeline.
+   */
+  private List<Bson> pipeline() {
+    Bson routing = client.routing().filter("fullDocument.");
+    Bson filter = watchFilter != null ? Filters.and(watchFilter, routing) : routing;
+    return Collections.singletonList(Aggregates.match(Filters.or(
+      Filters.exists("fullDocument." + Routing.REBALANCE), filter)));
+  }
+
+  /**
+   * Handles a single change of the publisher collection.
+   *
+   * @param change the change to handle.
+   * @return true if the change rebalanced the partitions of this node, false otherwise.
+   */
+  private boolean handle(ChangeStreamDocument<Document> change) {
+    OperationType operation = change.getOperationType();
+    Document document = change.getFullDocument();
+    if (document == null)
+      return false; // cannot handle null documents
+
+    if (operation == OperationType.INSERT) {
+      if (document.containsKey(Routing.REBALANCE))
+        return client.routing().rebalance(document);
+
+      client.tracer().received(document);
+      client.dispatcher().dispatch(document);
+      if (waiter.isAwaitTermination()) {
+        waiter.reset();
+        synchronized (waiter) {
+          waiter.notifyAll(); // notify the waiter
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Handles a change, moving it to the dead-letter collection if handling it fails, so the watcher
+   * never reopens the stream on a change which fails again and again.
+   *
+   * @param change the change to handle.
+   * @return true if the change rebalanced the partitions of this node, false otherwise.
+   */
+  private boolean handleOrReject(ChangeStreamDocument<Document> change) {
+    try {
+      return handle(change);
+    } catch (RuntimeException e) {
+      if (!running)
+        throw e;
+
+      Document document = change.getFullDocument();
+      System.err.println("Rejecting a change of " + executor.getName() + " after failure: " + e);
+      if (document != null)
+        client.dispatcher().reject(document, e);
+      return false;
+    }
   }
 
   /**
@@ -105,26 +322,55 @@ public class CollectionWatcher implements Closeable {
     }
   }
 
+  /**
+   * Gets the resume token of the last change handled by this watcher.
+   *
+   * @return the resume token, or null if no change was handled yet.
+   */
+  @Nullable
+  public BsonDocument resumeToken() {
+    return resumeToken;
+  }
+
+  /**
+   * Lets the watcher dispatch the changes that are still pending in the stream,
+   * and stops it once it has caught up or the timeout has elapsed.
+   *
+   * @param timeout the maximum time to wait for the watcher to drain.
+   * @param unit the unit of the timeout.
+   * @return true if the watcher drained all pending changes in time, false otherwise.
+   */
+  public boolean drain(long timeout, TimeUnit unit) {
+    draining = true;
+    try {
+      executor.join(Math.max(1L, unit.toMillis(timeout)));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return !executor.isAlive();
+  }
+
   /**
    * Closes this watcher, and interrupts the executor thread.
-   * If the {@link Waiter} is waiting for a payload to finish, the thread will
-   * wait for 1 second until it is interrupted.
+   * If the {@link Waiter} is waiting for a payload to finish, the thread is given
+   * up to 1 second to finish it before it is interrupted.
+   *
+   * <p>Use {@link #drain(long, TimeUnit)} before closing to dispatch all pending changes.
    *
    * @throws RuntimeException if the thread is interrupted.
    */
   @Override
   public void close() {
+    running = false;
     synchronized (executor) {
-      synchronized (waiter) {
-        if (waiter.isAwaitTermination()) {
-          try {
-            Thread.sleep(1000L);
-          } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-          }
+      if (executor.isAlive() && waiter.isAwaitTermination()) {
+        try {
+          executor.join(1000L);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
         }
-        executor.interrupt();
       }
+      executor.interrupt();
     }
   }
 
@@ -0,0 +1,221 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A subscription of a {@link PayloadPublisher}, reading its own change stream only while there is demand.
+ *
+ * <p>The cursor is opened when the subscription starts, so no payload published after subscribing is
+ * missed, but it is only polled while the subscriber has outstanding demand. Without demand no
+ * {@code getMore} is sent, and changes stay on the server. At most one batch of {@code prefetch}
+ * changes is buffered by the driver. If the stream fails, it is reopened from the last delivered
+ * change with a capped exponential backoff.
+ *
+ * @author Clouke
+ * @since 20.10.2026 00:06
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class CursorSubscription implements FlowSubscription {
+
+  /**
+   * Shared by the subscriptions of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("PayloadPublisher-%d")
+    .setDaemon(true)
+    .build();
+
+  private final MongoPubSubClient client;
+  private final PayloadPublisher publisher;
+  private final List<Bson> pipeline;
+  private final int prefetch;
+  private final FlowSubscriber subscriber;
+  private final Consumer<CursorSubscription> onTerminate;
+  private final AtomicLong demand = new AtomicLong();
+  private final Object signal = new Object();
+  private final Thread thread;
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> initial;
+  private BsonDocument resumeToken;
+  private volatile boolean cancelled;
+  private volatile boolean completed;
+  private volatile Throwable failure;
+
+  /**
+   * Constructs a new subscription.
+   *
+   * @param client the client owning the subscription.
+   * @param publisher the publisher selecting the changes of the subscription.
+   * @param subscriber the subscriber receiving the payloads.
+   * @param onTerminate called once the subscription has terminated.
+   */
+  CursorSubscription(MongoPubSubClient client, PayloadPublisher publisher,
+                     FlowSubscriber subscriber, Consumer<CursorSubscription> onTerminate) {
+    this.client = client;
+    this.publisher = publisher;
+    this.pipeline = publisher.pipeline();
+    this.prefetch = Math.max(1, publisher.prefetch());
+    this.subscriber = subscriber;
+    this.onTerminate = onTerminate;
+    this.thread = FACTORY.newThread(this::run);
+  }
+
+  /**
+   * Gets the publisher of this subscription.
+   *
+   * @return the publisher.
+   */
+  PayloadPublisher publisher() {
+    return publisher;
+  }
+
+  @Override
+  public void request(long n) {
+    if (n <= 0L) {
+      failure = new IllegalArgumentException("Requested " + n + " payloads, demand must be positive.");
+      cancel();
+      return;
+    }
+
+    demand.accumulateAndGet(n, (current, added) -> current + added < 0L ? Long.MAX_VALUE : current + added);
+    wake();
+  }
+
+  @Override
+  public void cancel() {
+    cancelled = true;
+    wake();
+  }
+
+  /**
+   * Opens the change stream on the calling thread, and starts delivering payloads on demand.
+   * If the stream cannot be opened yet, the subscription keeps retrying in the background.
+   */
+  void start() {
+    try {
+      initial = open();
+    } catch (MongoException e) {
+      System.err.println("Could not open the change stream of a subscription, retrying: " + e.getMessage());
+    }
+    thread.start();
+  }
+
+  /**
+   * Stops the subscription, signalling completion to the subscriber.
+   *
+   * @param timeout the maximum time in milliseconds to wait for the subscription to terminate.
+   */
+  void complete(long timeout) {
+    completed = true;
+    cancel();
+    try {
+      thread.join(Math.max(1L, timeout));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    Backoff backoff = new Backoff(100L, 30_000L);
+    try {
+      while (!cancelled) {
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = initial != null ? initial : open()) {
+          initial = null;
+          backoff.reset();
+          while (awaitDemand()) {
+            ChangeStreamDocument<Document> change = cursor.tryNext();
+            BsonDocument token = cursor.getResumeToken();
+            if (token != null)
+              resumeToken = token; // advances on empty batches too
+            if (change == null)
+              continue;
+
+            Document document = change.getFullDocument();
+            if (document == null)
+              continue;
+
+            demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1L);
+            subscriber.onNext(client.subscribers().payload(document));
+          }
+        } catch (MongoCommandException e) {
+          if (cancelled)
+            break;
+          if (CollectionWatcher.isHistoryLost(e)) {
+            failure = e; // cannot resume without missing payloads
+            break;
+          }
+          if (!backoff.sleep())
+            break;
+        } catch (MongoException e) {
+          if (cancelled || !backoff.sleep())
+            break;
+        }
+      }
+    } catch (RuntimeException e) {
+      e.printStackTrace(); // thrown by the subscriber, which is considered cancelled
+      return;
+    } finally {
+      onTerminate.accept(this);
+    }
+
+    if (failure != null) {
+      subscriber.onError(failure);
+    } else if (completed) {
+      subscriber.onComplete();
+    }
+  }
+
+  /**
+   * Opens the change stream, resuming after the last delivered change if present.
+   *
+   * @return the change stream cursor.
+   */
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open() {
+    ChangeStreamIterable<Document> observer = client.watched()
+      .watch(pipeline)
+      .fullDocument(FullDocument.UPDATE_LOOKUP)
+      .batchSize(prefetch);
+    if (resumeToken != null)
+      observer.resumeAfter(resumeToken);
+    return observer.cursor();
+  }
+
+  /**
+   * Waits until the subscriber has outstanding demand.
+   *
+   * @return true if there is demand, false if the subscription was cancelled.
+   */
+  private boolean awaitDemand() {
+    synchronized (signal) {
+      while (demand.get() == 0L && !cancelled) {
+        try {
+          signal.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return !cancelled;
+    }
+  }
+
+  private void wake() {
+    synchronized (signal) {
+      signal.notifyAll();
+    }
+  }
+
+}
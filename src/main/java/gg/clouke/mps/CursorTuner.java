@@ -0,0 +1,121 @@
+package gg.clouke.mps;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the batch size & await time of the change stream to the arrival rate of changes,
+ * configured through {@link MongoClientBuilder#adaptiveWatchCursor(int, int, long, long, TimeUnit)}.
+ *
+ * <p>The arrival rate is measured over windows of one second. The batch size is sized to hold
+ * about 100 milliseconds of changes, rounded up to a power of two within the bounds, so a burst is
+ * read in few round trips while a quiet stream keeps small batches. The await time follows the
+ * batch size between its bounds, so a quiet stream polls often, noticing a close or an idle batch
+ * quickly, while a busy stream rarely comes back empty anyway. While the dispatch lanes are more
+ * than half full, the batch size is halved instead, so less is read ahead of slow subscribers.
+ *
+ * <p>The cursor settings are fixed once the stream is opened, so the watcher reopens the stream
+ * from its resume token to apply them, at most once every five seconds.
+ *
+ * <p>Not thread-safe, the tuner is owned by the watcher thread.
+ *
+ * @author Clouke
+ * @since 20.10.2026 01:02
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class CursorTuner {
+
+  private static final long WINDOW = TimeUnit.SECONDS.toNanos(1L);
+  private static final long COOLDOWN = TimeUnit.SECONDS.toNanos(5L);
+  private static final double ROUND_TRIP = 0.1D; // seconds of changes held by a batch
+
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final long minAwaitTime;
+  private final long maxAwaitTime;
+  private int batchSize;
+  private long awaitTime;
+  private long windowStart;
+  private long tunedAt;
+  private int received;
+
+  /**
+   * Constructs a new tuner, starting from the smallest batch size & await time.
+   *
+   * @param minBatchSize the smallest batch size.
+   * @param maxBatchSize the largest batch size.
+   * @param minAwaitTime the shortest await time in milliseconds.
+   * @param maxAwaitTime the longest await time in milliseconds.
+   */
+  CursorTuner(int minBatchSize, int maxBatchSize, long minAwaitTime, long maxAwaitTime) {
+    this.minBatchSize = Math.max(1, minBatchSize);
+    this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+    this.minAwaitTime = Math.max(1L, minAwaitTime);
+    this.maxAwaitTime = Math.max(this.minAwaitTime, maxAwaitTime);
+    this.batchSize = this.minBatchSize;
+    this.awaitTime = this.minAwaitTime;
+    this.windowStart = System.nanoTime();
+    this.tunedAt = windowStart;
+  }
+
+  /**
+   * Records a poll of the change stream, and retunes the cursor settings once per window.
+   *
+   * @param change whether the poll returned a change.
+   * @param saturation how full the fullest dispatch lane is, between 0 and 1.
+   * @param now the current {@link System#nanoTime()}.
+   * @return true if the settings changed and the stream should be reopened, false otherwise.
+   */
+  boolean record(boolean change, double saturation, long now) {
+    if (change)
+      received++;
+    long elapsed = now - windowStart;
+    if (elapsed < WINDOW)
+      return false;
+
+    double rate = received * (double) TimeUnit.SECONDS.toNanos(1L) / elapsed;
+    windowStart = now;
+    received = 0;
+    if (now - tunedAt < COOLDOWN)
+      return false;
+
+    int batchSize = saturation > 0.5D
+      ? Math.max(minBatchSize, this.batchSize >>> 1)
+      : clamp(ceilPowerOfTwo((long) Math.ceil(rate * ROUND_TRIP)));
+    long awaitTime = minAwaitTime + (maxAwaitTime - minAwaitTime)
+      * (batchSize - minBatchSize) / Math.max(1, maxBatchSize - minBatchSize);
+    if (batchSize == this.batchSize && awaitTime < this.awaitTime * 2L && awaitTime * 2L > this.awaitTime)
+      return false; // not worth reopening the stream
+
+    this.batchSize = batchSize;
+    this.awaitTime = awaitTime;
+    this.tunedAt = now;
+    return true;
+  }
+
+  /**
+   * Gets the batch size the stream should be opened with.
+   *
+   * @return the batch size.
+   */
+  int batchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Gets the await time the stream should be opened with.
+   *
+   * @return the await time in milliseconds.
+   */
+  long awaitTime() {
+    return awaitTime;
+  }
+
+  private int clamp(long batchSize) {
+    return (int) Math.max(minBatchSize, Math.min(maxBatchSize, batchSize));
+  }
+
+  private static long ceilPowerOfTwo(long value) {
+    return value <= 1L ? 1L : Long.highestOneBit(value - 1L) << 1;
+  }
+
+}
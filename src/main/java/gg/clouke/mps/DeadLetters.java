@@ -0,0 +1,106 @@
+package gg.clouke.mps;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+
+import javax.annotation.Nonnull;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Stores payloads which kept failing after exhausting their delivery attempts.
+ *
+ * <p>Each dead letter holds the original document, the target, the node which gave up
+ * on it, the amount of attempts and the last error, so that it can be inspected and
+ * re-published once the subscriber has been fixed.
+ *
+ * @author Clouke
+ * @since 19.10.2026 15:10
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class DeadLetters {
+
+  private final MongoCollection<Document> collection;
+  private final String nodeId;
+  private final Metrics metrics;
+
+  /**
+   * Constructs a new dead-letter store.
+   *
+   * @param collection the collection holding the dead letters.
+   * @param nodeId the id of this node.
+   * @param metrics the metrics of the client.
+   */
+  DeadLetters(MongoCollection<Document> collection, String nodeId, Metrics metrics) {
+    this.collection = collection;
+    this.nodeId = nodeId;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Gets the dead-letter collection.
+   *
+   * @return the dead-letter collection.
+   */
+  @Nonnull
+  MongoCollection<Document> collection() {
+    return collection;
+  }
+
+  /**
+   * Stores a payload which exhausted its delivery attempts.
+   *
+   * @param target the target of the payload.
+   * @param document the original document of the payload.
+   * @param attempts the amount of delivery attempts.
+   * @param error the error of the last attempt.
+   */
+  void store(String target, Document document, int attempts, Throwable error) {
+    metrics.increment(Metric.DEAD_LETTERED);
+    try {
+      collection.insertOne(letter(target, document, attempts, error));
+    } catch (MongoException e) {
+      System.err.println("Could not store dead letter of target " + target + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stores a batch of dead letters with a single write.
+   *
+   * @param letters the dead letters, built by {@link #letter(String, Document, int, Throwable)}.
+   */
+  void storeAll(List<Document> letters) {
+    if (letters.isEmpty())
+      return;
+
+    metrics.add(Metric.DEAD_LETTERED, letters.size());
+    try {
+      collection.insertMany(letters, new InsertManyOptions().ordered(false));
+    } catch (MongoException e) {
+      System.err.println("Could not store " + letters.size() + " dead letters: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Builds the dead letter of a payload, without storing it.
+   *
+   * @param target the target of the payload.
+   * @param document the original document of the payload.
+   * @param attempts the amount of delivery attempts.
+   * @param error the error of the last attempt.
+   * @return the dead letter.
+   */
+  Document letter(String target, Document document, int attempts, Throwable error) {
+    return new Document("target", target)
+      .append("payload", document)
+      .append("node", nodeId)
+      .append("attempts", attempts)
+      .append("error", String.valueOf(error))
+      .append("time", new Date());
+  }
+
+}
@@ -0,0 +1,163 @@
+package gg.clouke.mps;
+
+import org.bson.types.ObjectId;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the ids of recently delivered payloads per target, so that payloads received twice are delivered once.
+ *
+ * <p>Ids are hashed to 64 bits and kept in a ring of time buckets, each an open-addressing set of
+ * primitive longs. Once the current bucket has spanned its share of the window, or is full, the
+ * oldest bucket is cleared and reused. The memory of the window is allocated up front and never
+ * grows, no matter the throughput. When payloads arrive faster than the buckets can hold them,
+ * the window is shortened rather than grown.
+ *
+ * <p>Ids are hashed, so a payload may be dropped as a false duplicate with a negligible
+ * probability of about one in 2^64 / the amount of remembered ids.
+ *
+ * @author Clouke
+ * @since 19.10.2026 20:42
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Deduplicator {
+
+  private static final int BUCKETS = 4;
+
+  private final LongSet[] buckets = new LongSet[BUCKETS];
+  private final long span;
+  private int current;
+  private long rotatedAt;
+
+  /**
+   * Constructs a new deduplicator.
+   *
+   * @param window the minimum time in milliseconds to remember an id for.
+   * @param maxIds the maximum amount of ids remembered within the window.
+   */
+  Deduplicator(long window, int maxIds) {
+    int perBucket = Math.max(16, maxIds / (BUCKETS - 1));
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongSet(perBucket);
+    }
+    this.span = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, window / (BUCKETS - 1)));
+    this.rotatedAt = System.nanoTime();
+  }
+
+  /**
+   * Checks whether the id was seen on the target within the window, and remembers it if not.
+   * The same id on another target is not a duplicate.
+   *
+   * @param id the id of the payload.
+   * @param target the target of the payload.
+   * @return true if the id is a duplicate, false if it is seen for the first time.
+   */
+  synchronized boolean isDuplicate(Object id, String target) {
+    long hash = mix(hash(id) ^ hash(target) * 0x9E3779B97F4A7C15L);
+    if (hash == 0L)
+      hash = 1L;
+    for (LongSet bucket : buckets) {
+      if (bucket.contains(hash))
+        return true;
+    }
+
+    long now = System.nanoTime();
+    if (now - rotatedAt >= span || buckets[current].isFull()) {
+      current = (current + 1) % BUCKETS;
+      buckets[current].clear();
+      rotatedAt = now;
+    }
+    buckets[current].add(hash);
+    return false;
+  }
+
+  /**
+   * Hashes an id to 64 bits.
+   *
+   * @param id the id, an {@link ObjectId} for ids stamped by this library.
+   * @return the hash of the id, never 0.
+   */
+  static long hash(Object id) {
+    long hash;
+    if (id instanceof ObjectId) {
+      byte[] bytes = ((ObjectId) id).toByteArray();
+      long high = 0L;
+      for (int i = 0; i < 8; i++) {
+        high = (high << 8) | (bytes[i] & 0xFFL);
+      }
+      long low = 0L;
+      for (int i = 8; i < 12; i++) {
+        low = (low << 8) | (bytes[i] & 0xFFL);
+      }
+      hash = mix(high ^ mix(low));
+    } else {
+      String value = String.valueOf(id);
+      hash = 0xcbf29ce484222325L; // FNV-1a
+      for (int i = 0; i < value.length(); i++) {
+        hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+      }
+      hash = mix(hash);
+    }
+    return hash == 0L ? 1L : hash;
+  }
+
+  /**
+   * Mixes the bits of a long, the finalizer of MurmurHash3.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return z ^ (z >>> 33);
+  }
+
+  /**
+   * A fixed-size open-addressing set of non-zero longs, with linear probing.
+   */
+  private static final class LongSet {
+    private final long[] table;
+    private final int mask;
+    private final int capacity;
+    private int size;
+
+    private LongSet(int capacity) {
+      int length = Integer.highestOneBit(Math.max(2, capacity * 2 - 1) << 1); // at most half full
+      this.table = new long[length];
+      this.mask = length - 1;
+      this.capacity = capacity;
+    }
+
+    private boolean contains(long hash) {
+      for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+        long value = table[i];
+        if (value == hash)
+          return true;
+        if (value == 0L)
+          return false;
+      }
+    }
+
+    private void add(long hash) {
+      int i = (int) hash & mask;
+      while (table[i] != 0L) {
+        if (table[i] == hash)
+          return;
+        i = (i + 1) & mask;
+      }
+      table[i] = hash;
+      size++;
+    }
+
+    private boolean isFull() {
+      return size >= capacity;
+    }
+
+    private void clear() {
+      if (size > 0) {
+        Arrays.fill(table, 0L);
+        size = 0;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,341 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Queues received payloads in one lane per {@link Priority} class, and dispatches them
+ * off the watcher thread in priority order.
+ *
+ * <p>The {@link Priority#CRITICAL} lane is dispatched by a thread of its own, so a critical payload
+ * only waits behind the payloads of its own lane, never behind a slow handler of another class.
+ * The other lanes share a second thread, following the {@link LanePolicy}.
+ *
+ * <p>Each lane is bounded. When the lane of a {@link Priority#CRITICAL} or {@link Priority#HIGH}
+ * payload is full, the watcher waits for it, slowing down reading the change stream. Payloads of
+ * the lower classes are spilled to the dead-letter collection instead, so a burst of low-value
+ * payloads never stops the watcher from reading a critical one.
+ *
+ * <p>Tasks handed back to a lane, such as payloads released by the {@link Sequencer}, run on the
+ * dispatching thread in the order of their lane, and never wait for a full lane.
+ *
+ * <p>The time each payload spent queued is recorded per lane in {@link Metrics#queueTime(Priority)}.
+ *
+ * @author Clouke
+ * @since 19.10.2026 21:14
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class DispatchLanes implements Closeable {
+
+  /**
+   * Shared by the lanes of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("DispatchLane-%d")
+    .setPriority(Thread.MAX_PRIORITY)
+    .setDaemon(true)
+    .build();
+
+  private static final Priority[] PRIORITIES = Priority.values();
+
+  private final ArrayDeque<Entry>[] lanes;
+  private final BiConsumer<String, Document> delivery;
+  private final BiConsumer<String, Document> spill;
+  private final Metrics metrics;
+  private final LanePolicy policy;
+  private final int capacity;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Worker[] workers;
+  private boolean closed;
+
+  /**
+   * Constructs and starts new dispatch lanes.
+   *
+   * @param delivery dispatches a payload, by target.
+   * @param spill takes over a payload of a lower class whose lane is full, by target.
+   * @param metrics the metrics to record queue times to.
+   * @param policy how the lanes below {@link Priority#CRITICAL} share their dispatching thread.
+   * @param capacity the maximum amount of payloads queued per lane.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  DispatchLanes(BiConsumer<String, Document> delivery, BiConsumer<String, Document> spill,
+                Metrics metrics, LanePolicy policy, int capacity) {
+    this.delivery = delivery;
+    this.spill = spill;
+    this.metrics = metrics;
+    this.policy = policy;
+    this.capacity = Math.max(1, capacity);
+    this.lanes = new ArrayDeque[PRIORITIES.length];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new ArrayDeque<>();
+    }
+    this.workers = new Worker[] {
+      new Worker(0, 1), // critical
+      new Worker(1, PRIORITIES.length)
+    };
+    for (Worker worker : workers) {
+      worker.thread.start();
+    }
+  }
+
+  /**
+   * Queues a payload in the lane of its priority class. While the lane is full, the watcher
+   * waits for payloads of {@link Priority#HIGH} or above, and spills payloads of the lower classes.
+   *
+   * @param priority the priority class of the payload.
+   * @param target the target of the payload.
+   * @param document the payload.
+   * @return true if the payload was queued or spilled, false if the lanes are closed.
+   */
+  boolean submit(Priority priority, String target, Document document) {
+    ArrayDeque<Entry> lane = lanes[priority.ordinal()];
+    boolean spilled = false;
+    lock.lock();
+    try {
+      if (priority.compareTo(Priority.HIGH) > 0) {
+        spilled = lane.size() >= capacity && !closed;
+      } else {
+        while (lane.size() >= capacity && !closed) {
+          notFull.await();
+        }
+      }
+      if (closed)
+        return false;
+
+      if (!spilled)
+        enqueue(priority, new Entry(target, document, null, System.nanoTime()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      lock.unlock();
+    }
+
+    if (spilled)
+      spill.accept(target, document); // outside the lock, the dispatching threads keep going
+    return true;
+  }
+
+  /**
+   * Queues a task in the lane of a priority class, without waiting for the lane.
+   *
+   * @param priority the priority class of the task.
+   * @param task the task to run on the dispatching thread.
+   * @return true if the task was queued, false if the lanes are closed.
+   */
+  boolean execute(Priority priority, Runnable task) {
+    lock.lock();
+    try {
+      if (closed)
+        return false;
+
+      enqueue(priority, new Entry(null, null, task, System.nanoTime()));
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adds an entry to the lane of its priority class, and wakes up its dispatching thread.
+   * Called with the lock held.
+   */
+  private void enqueue(Priority priority, Entry entry) {
+    lanes[priority.ordinal()].addLast(entry);
+    Worker worker = workers[priority == Priority.CRITICAL ? 0 : 1];
+    worker.size++;
+    worker.notEmpty.signal();
+  }
+
+  /**
+   * Gets the amount of payloads queued in the lane of a priority class.
+   *
+   * @param priority the priority class.
+   * @return the amount of queued payloads.
+   */
+  int pending(Priority priority) {
+    lock.lock();
+    try {
+      return lanes[priority.ordinal()].size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets how full the fullest lane is.
+   *
+   * @return the amount of payloads queued in the fullest lane, relative to the lane capacity.
+   */
+  double saturation() {
+    lock.lock();
+    try {
+      int fullest = 0;
+      for (ArrayDeque<Entry> lane : lanes) {
+        fullest = Math.max(fullest, lane.size());
+      }
+      return fullest / (double) capacity;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops accepting payloads, and waits for the queued payloads to be dispatched.
+   *
+   * @param timeout the maximum time to wait for the queued payloads.
+   * @param unit the unit of the timeout.
+   * @return true if all queued payloads were dispatched in time, false otherwise.
+   */
+  boolean close(long timeout, TimeUnit unit) {
+    lock.lock();
+    try {
+      closed = true;
+      for (Worker worker : workers) {
+        worker.notEmpty.signalAll();
+      }
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    long deadline = System.currentTimeMillis() + Math.max(1L, unit.toMillis(timeout));
+    boolean drained = true;
+    for (Worker worker : workers) {
+      try {
+        worker.thread.join(Math.max(1L, deadline - System.currentTimeMillis()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (worker.thread.isAlive()) {
+        worker.thread.interrupt();
+        drained = false;
+      }
+    }
+    return drained;
+  }
+
+  /**
+   * Closes the lanes without waiting for the queued payloads.
+   */
+  @Override
+  public void close() {
+    close(0L, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A dispatching thread, serving a range of lanes.
+   */
+  private final class Worker {
+    private final int from;
+    private final int to;
+    private final int[] credits = new int[PRIORITIES.length];
+    private final Condition notEmpty = lock.newCondition();
+    private final Thread thread;
+    private int size;
+
+    private Worker(int from, int to) {
+      this.from = from;
+      this.to = to;
+      this.thread = FACTORY.newThread(this::run);
+    }
+
+    private void run() {
+      while (true) {
+        Entry entry;
+        int lane;
+        lock.lock();
+        try {
+          while (size == 0) {
+            if (closed)
+              return;
+            notEmpty.await();
+          }
+          lane = next();
+          entry = lanes[lane].pollFirst();
+          size--;
+          notFull.signalAll();
+        } catch (InterruptedException e) {
+          return;
+        } finally {
+          lock.unlock();
+        }
+
+        try {
+          if (entry.task != null) {
+            entry.task.run();
+            continue;
+          }
+
+          metrics.queueTime(PRIORITIES[lane]).record(System.nanoTime() - entry.queuedAt);
+          delivery.accept(entry.target, entry.document);
+        } catch (RuntimeException e) {
+          e.printStackTrace(); // never stop the lanes
+        }
+      }
+    }
+
+    /**
+     * Picks the lane to dispatch from, at least one lane of this worker must be non-empty.
+     *
+     * @return the index of the lane.
+     */
+    private int next() {
+      if (policy == LanePolicy.STRICT)
+        return highest();
+
+      for (int i = from; i < to; i++) {
+        if (!lanes[i].isEmpty() && credits[i] > 0) {
+          credits[i]--;
+          return i;
+        }
+      }
+
+      /*
+       * every non-empty lane used up its share of this round, start the next round.
+       */
+      for (int i = from; i < to; i++) {
+        credits[i] = PRIORITIES[i].weight();
+      }
+      int lane = highest();
+      credits[lane]--;
+      return lane;
+    }
+
+    private int highest() {
+      for (int i = from; i < to; i++) {
+        if (!lanes[i].isEmpty())
+          return i;
+      }
+      throw new IllegalStateException("No lane to dispatch from.");
+    }
+  }
+
+  /**
+   * A payload, or a task, queued in a lane.
+   */
+  private static final class Entry {
+    private final String target;
+    private final Document document;
+    private final Runnable task;
+    private final long queuedAt;
+
+    private Entry(String target, Document document, Runnable task, long queuedAt) {
+      this.target = target;
+      this.document = document;
+      this.task = task;
+      this.queuedAt = queuedAt;
+    }
+  }
+
+}
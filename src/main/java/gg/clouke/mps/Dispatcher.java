@@ -0,0 +1,344 @@
+package gg.clouke.mps;
+
+import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches the documents received by the {@link CollectionWatcher} to the subscribers,
+ * isolating the watcher from failing payloads.
+ *
+ * <p>Documents without a subscriber on this node are skipped. If decoding the payload or the
+ * subscriber throws, the payload is redelivered in place, on the delivering thread, after a capped
+ * exponential backoff with jitter, until the maximum amount of attempts configured through
+ * {@link MongoClientBuilder#maxDeliveryAttempts(int)} is reached. Later payloads of the target wait
+ * meanwhile, so payloads are never reordered by a redelivery. Payloads that keep failing
+ * are moved to the dead-letter collection, so one bad payload never stops the watcher.
+ *
+ * <p>When priority lanes are enabled, payloads are first queued in the {@link DispatchLanes}
+ * of their {@link Priority} class, and dispatched off the watcher thread. Payloads of the lower
+ * classes whose lane is full are spilled to the dead-letter collection, in batches written once
+ * the watcher is idle or {@link #SPILL_BATCH} payloads were spilled, so a burst never costs the
+ * watcher one write per payload.
+ *
+ * <p>When sequencing is enabled, payloads pass through a {@link Sequencer} first, which
+ * delivers them in publishing order. Payloads it releases after giving up on a gap are handed
+ * back to the dispatch lane of their target, or to the watcher thread when lanes are disabled,
+ * where they are delivered ahead of the next payload. When deduplication is enabled, payloads whose id was
+ * delivered before are then dropped by the {@link Deduplicator}.
+ *
+ * <p>Payloads of {@link BatchSubscriber}s are collected by the {@link Batcher} last, and their
+ * batches are delivered on the dispatch thread of their target, where they are redelivered or
+ * dead-lettered as a whole.
+ *
+ * <p>Stream descriptors are handed over to {@link Streams}, which reads them off the watcher thread.
+ *
+ * @author Clouke
+ * @since 19.10.2026 15:18
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Dispatcher implements Closeable {
+
+  /**
+   * The maximum backoff between two delivery attempts in milliseconds.
+   */
+  static final long MAX_BACKOFF = 5_000L;
+
+  /**
+   * The amount of spilled payloads at which they are written to the dead-letter collection,
+   * without waiting for the watcher to be idle.
+   */
+  static final int SPILL_BATCH = 256;
+
+  private final MongoPubSubClient client;
+  private final DeadLetters deadLetters;
+  private final Metrics metrics;
+  private final int maxAttempts;
+  private final long backoff;
+  private final Sequencer sequencer;
+  private final Deduplicator deduplicator;
+  private final DispatchLanes lanes;
+  private final Batcher batcher;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private List<Document> spilled = new ArrayList<>();
+
+  /**
+   * Constructs a new dispatcher.
+   *
+   * @param client the client owning this dispatcher.
+   * @param deadLetters the dead-letter store of the client.
+   * @param b the builder to configure the dispatcher.
+   */
+  Dispatcher(MongoPubSubClient client, DeadLetters deadLetters, MongoClientBuilder b) {
+    this.client = client;
+    this.deadLetters = deadLetters;
+    this.metrics = client.metrics();
+    this.maxAttempts = Math.max(1, b.maxDeliveryAttempts);
+    this.backoff = b.redeliveryUnit.toMillis(b.redeliveryBackoff);
+    this.sequencer = b.reorderBuffer > 0
+      ? new Sequencer(this::deliver, this::handBack, metrics, b.reorderBuffer, b.reorderWait)
+      : null;
+    this.deduplicator = b.dedupMaxIds > 0
+      ? new Deduplicator(b.dedupWindow, b.dedupMaxIds)
+      : null;
+    this.lanes = b.lanePolicy != null
+      ? new DispatchLanes(this::route, this::spill, metrics, b.lanePolicy, b.laneCapacity)
+      : null;
+    this.batcher = new Batcher(client.subscribers(), this::attempt, this::handBack);
+  }
+
+  /**
+   * Sets the listener notified of sequence gaps which could not be filled.
+   *
+   * @param listener the gap listener.
+   * @throws IllegalStateException if sequencing is not enabled.
+   */
+  void onGap(GapListener listener) {
+    if (sequencer == null)
+      throw new IllegalStateException("Sequencing is not enabled, see MongoClientBuilder#sequencing.");
+    sequencer.listener(listener);
+  }
+
+  /**
+   * Dispatches a document to the subscriber of its target.
+   *
+   * @param document the document to dispatch.
+   */
+  void dispatch(Document document) {
+    runTasks();
+    String target = document.getString("payload:target");
+    if (document.containsKey(Streams.FIELD)) {
+      if (target == null || !client.streams().isListening(target)) {
+        metrics.increment(Metric.UNROUTED);
+        return;
+      }
+
+      client.streams().deliver(target, document); // read off the watcher thread
+      metrics.increment(Metric.DELIVERED);
+      return;
+    }
+
+    if (target == null || !client.subscribers().isSubscribed(target)) {
+      metrics.increment(Metric.UNROUTED);
+      return;
+    }
+
+    if (lanes != null) {
+      if (lanes.submit(client.priority(target), target, document)) // one lane per target, keeping its order
+        return;
+      // the lanes are closing, dispatch on the watcher thread instead
+    }
+
+    route(target, document);
+  }
+
+  /**
+   * Routes a document through the sequencer, if enabled, towards its delivery.
+   *
+   * @param target the target of the document.
+   * @param document the document to route.
+   */
+  private void route(String target, Document document) {
+    if (sequencer != null) {
+      sequencer.accept(target, document);
+      return;
+    }
+
+    deliver(target, document);
+  }
+
+  /**
+   * Moves a document which could not be dispatched at all to the dead-letter collection.
+   *
+   * @param document the document.
+   * @param error the error of the dispatch.
+   */
+  void reject(Document document, Throwable error) {
+    deadLetters.store(document.getString("payload:target"), document, 0, error);
+  }
+
+  /**
+   * Moves a payload whose dispatch lane is full to the dead-letter collection, without attempting it.
+   * The dead letter is only collected here, and written with the next batch of spilled payloads.
+   *
+   * @param target the target of the payload.
+   * @param document the payload.
+   */
+  private void spill(String target, Document document) {
+    metrics.increment(Metric.SPILLED);
+    boolean full;
+    synchronized (this) {
+      spilled.add(deadLetters.letter(target, document, 0, new IllegalStateException("Dispatch lane is full.")));
+      full = spilled.size() >= SPILL_BATCH;
+    }
+    if (full)
+      storeSpilled();
+  }
+
+  /**
+   * Writes the spilled payloads collected so far to the dead-letter collection.
+   */
+  private void storeSpilled() {
+    List<Document> letters;
+    synchronized (this) {
+      if (spilled.isEmpty())
+        return;
+
+      letters = spilled;
+      spilled = new ArrayList<>();
+    }
+    deadLetters.storeAll(letters); // outside the lock, the write never blocks the next spill
+  }
+
+  /**
+   * Runs a task on the dispatch thread of a target, i.e. in the dispatch lane of its priority class,
+   * or on the watcher thread if priority lanes are disabled or closing.
+   *
+   * @param target the target.
+   * @param task the task to run.
+   */
+  private void handBack(String target, Runnable task) {
+    if (lanes != null && lanes.execute(client.priority(target), task))
+      return;
+
+    tasks.add(task); // run by the watcher with its next change, or once it is idle
+  }
+
+  /**
+   * Runs the tasks handed back to the watcher thread.
+   */
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace(); // never stop the watcher
+      }
+    }
+  }
+
+  /**
+   * Delivers a document for the first time, unless it was delivered before.
+   *
+   * @param target the target of the document.
+   * @param document the document to deliver.
+   */
+  private void deliver(String target, Document document) {
+    Object id = document.get(Payload.ID);
+    if (deduplicator != null && id != null && deduplicator.isDuplicate(id, target)) {
+      metrics.increment(Metric.DUPLICATES);
+      return;
+    }
+
+    if (!batcher.add(target, document))
+      attempt(target, document);
+  }
+
+  /**
+   * Gets how full the fullest dispatch lane is, to slow down reading the change stream.
+   *
+   * @return the saturation of the fullest lane between 0 and 1, or 0 if priority lanes are disabled.
+   */
+  double saturation() {
+    return lanes != null ? lanes.saturation() : 0D;
+  }
+
+  /**
+   * Delivers the pending batches and writes the spilled payloads, called once the watcher
+   * has no more changes at hand.
+   */
+  void idle() {
+    runTasks();
+    batcher.flush();
+    runTasks(); // the batches handed back to the watcher thread, if lanes are disabled
+    storeSpilled();
+  }
+
+  /**
+   * Attempts to deliver a document, redelivering it in place or dead-lettering it if it keeps failing.
+   * Redeliveries run on the delivering thread, so the subscriber is never called concurrently and no
+   * later payload of the target is delivered before this one succeeded or was dead-lettered.
+   *
+   * @param target the target of the document.
+   * @param document the document to deliver.
+   */
+  private void attempt(String target, Document document) {
+    Backoff backoff = new Backoff(this.backoff, Math.max(this.backoff, MAX_BACKOFF));
+    for (int attempt = 1; ; attempt++) {
+      try {
+        client.subscribers().dispatch(target, document);
+        metrics.increment(Metric.DELIVERED);
+        return;
+      } catch (RuntimeException e) {
+        metrics.increment(Metric.FAILED_ATTEMPTS);
+        if (attempt >= maxAttempts || !backoff.sleep()) {
+          deadLetters.store(target, document, attempt, e);
+          return;
+        }
+        metrics.increment(Metric.REDELIVERED);
+      }
+    }
+  }
+
+  /**
+   * Attempts to deliver a batch, redelivering the whole batch in place or dead-lettering its
+   * documents if it keeps failing. Called by the {@link Batcher} with the lock of the batch held,
+   * so no newer batch of the target is delivered before this one succeeded or was dead-lettered.
+   *
+   * @param target the target of the batch.
+   * @param documents the documents of the batch.
+   */
+  private void attempt(String target, List<Document> documents) {
+    Backoff backoff = new Backoff(this.backoff, Math.max(this.backoff, MAX_BACKOFF));
+    for (int attempt = 1; ; attempt++) {
+      try {
+        client.subscribers().dispatchBatch(target, documents);
+        metrics.add(Metric.DELIVERED, documents.size());
+        return;
+      } catch (RuntimeException e) {
+        metrics.increment(Metric.FAILED_ATTEMPTS);
+        if (attempt >= maxAttempts || !backoff.sleep()) {
+          int attempts = attempt;
+          documents.forEach(document -> deadLetters.store(target, document, attempts, e));
+          return;
+        }
+        metrics.increment(Metric.REDELIVERED);
+      }
+    }
+  }
+
+  /**
+   * Drains the dispatch lanes, then delivers what the sequencer & batcher still hold.
+   *
+   * @param timeout the maximum time to wait for the dispatch lanes to drain.
+   * @param unit the unit of the timeout.
+   * @return true if the dispatch lanes drained in time, false otherwise.
+   */
+  boolean close(long timeout, TimeUnit unit) {
+    boolean drained = lanes == null || lanes.close(timeout, unit);
+    if (!drained)
+      System.err.println("Dispatch lanes did not drain within the shutdown timeout.");
+    if (sequencer != null)
+      sequencer.close(); // deliver what is still held
+    batcher.close();
+    storeSpilled();
+    return drained;
+  }
+
+  /**
+   * Closes this dispatcher without waiting for the dispatch lanes to drain.
+   */
+  @Override
+  public void close() {
+    close(0L, TimeUnit.MILLISECONDS);
+  }
+
+}
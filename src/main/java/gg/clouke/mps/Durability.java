@@ -0,0 +1,61 @@
+package gg.clouke.mps;
+
+import com.mongodb.WriteConcern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Represents the durability tier a payload is published with.
+ *
+ * <p>Each tier is published through its own collection handle, configured with the
+ * matching {@link WriteConcern}, and its own {@link PublishLane}, so that cheap traffic
+ * never waits behind payloads requiring a stronger acknowledgement.
+ *
+ * <pre>{@code
+ * client.enqueue("telemetry", payload, Durability.FIRE_AND_FORGET);
+ * client.durability("admin-command", Durability.MAJORITY); // applies to every enqueue on this target
+ * }</pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 11:04
+ * © mongo-pubsub - All Rights Reserved
+ */
+public enum Durability {
+
+  /**
+   * Uses the write concern configured on the connection, the behaviour prior to durability tiers.
+   */
+  DEFAULT(null),
+
+  /**
+   * Unacknowledged writes ({@code w:0}), the payload may be lost without notice.
+   */
+  FIRE_AND_FORGET(WriteConcern.UNACKNOWLEDGED),
+
+  /**
+   * Writes acknowledged by the primary ({@code w:1}).
+   */
+  ACKNOWLEDGED(WriteConcern.ACKNOWLEDGED),
+
+  /**
+   * Writes acknowledged by the majority of the replica set and written to the journal.
+   */
+  MAJORITY(WriteConcern.MAJORITY.withJournal(true));
+
+  private final WriteConcern writeConcern;
+
+  Durability(WriteConcern writeConcern) {
+    this.writeConcern = writeConcern;
+  }
+
+  /**
+   * Gets the write concern of this tier.
+   *
+   * @return the write concern, or null if the connection's write concern is used.
+   */
+  @Nullable
+  public WriteConcern writeConcern() {
+    return writeConcern;
+  }
+
+}
@@ -0,0 +1,165 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gg.acai.acava.io.Closeable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes enqueued payloads off the caller thread, configured through
+ * {@link MongoClientBuilder#encodeWorkers(int, int)}.
+ *
+ * <p>The caller only hands a snapshot of its payload over to a worker, which stamps & encodes
+ * it to a {@link org.bson.RawBsonDocument}, and passes it to the {@link PublishLane} of its tier.
+ * Payloads of the same target are always handed to the same worker, so they keep the order in
+ * which they were enqueued. Each worker queue is bounded, when it is full the caller waits for it.
+ *
+ * @author Clouke
+ * @since 19.10.2026 23:47
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class EncodeStage implements Closeable {
+
+  /**
+   * Shared by the encode stages of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("PayloadEncoder-%d")
+    .setDaemon(true)
+    .build();
+
+  private final BlockingQueue<Runnable>[] queues;
+  private final Thread[] workers;
+  private final AtomicInteger pending = new AtomicInteger();
+  private volatile boolean running = true;
+
+  /**
+   * Constructs and starts a new encode stage.
+   *
+   * @param workers the amount of encoding threads.
+   * @param capacity the maximum amount of payloads queued per worker.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  EncodeStage(int workers, int capacity) {
+    int size = Math.max(1, workers);
+    this.queues = new BlockingQueue[size];
+    this.workers = new Thread[size];
+    for (int i = 0; i < size; i++) {
+      BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+      queues[i] = queue;
+      this.workers[i] = FACTORY.newThread(() -> work(queue));
+      this.workers[i].start();
+    }
+  }
+
+  /**
+   * Hands an encoding task over to the worker of its target, waiting while the worker's queue is full.
+   *
+   * @param target the target of the payload.
+   * @param task stamps, encodes & publishes the payload.
+   * @throws IllegalStateException if the thread is interrupted while waiting for queue space.
+   */
+  void submit(String target, Runnable task) {
+    BlockingQueue<Runnable> queue = queues[(target.hashCode() & Integer.MAX_VALUE) % queues.length];
+    pending.incrementAndGet();
+    try {
+      queue.put(task);
+    } catch (InterruptedException e) {
+      release();
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for encode stage capacity.", e);
+    }
+  }
+
+  /**
+   * Waits for the queued payloads to be encoded & handed to their publish lane.
+   *
+   * @param deadline the {@link System#nanoTime()} at which to stop waiting.
+   * @return true if every queued payload was encoded in time, false otherwise.
+   */
+  boolean flush(long deadline) {
+    synchronized (pending) {
+      long remaining;
+      while (pending.get() > 0 && (remaining = deadline - System.nanoTime()) > 0L) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return pending.get() == 0;
+    }
+  }
+
+  /**
+   * Gets the amount of payloads which are queued or being encoded.
+   *
+   * @return the amount of pending payloads.
+   */
+  int pending() {
+    return pending.get();
+  }
+
+  /**
+   * Runs the tasks of a worker queue until the stage is closed and the queue is drained.
+   * A failing task is reported and never stops the worker.
+   *
+   * @param queue the queue of the worker.
+   */
+  private void work(BlockingQueue<Runnable> queue) {
+    while (running || !queue.isEmpty()) {
+      Runnable task;
+      try {
+        task = queue.poll(100L, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        if (!running && queue.isEmpty())
+          return;
+        continue;
+      }
+      if (task == null)
+        continue;
+
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace(); // the caller has returned already, never stop the worker
+      } finally {
+        release();
+      }
+    }
+  }
+
+  /**
+   * Marks a submitted task as done, or given up on, and wakes up the flushing threads
+   * once no task is pending anymore.
+   */
+  private void release() {
+    if (pending.decrementAndGet() == 0) {
+      synchronized (pending) {
+        pending.notifyAll(); // notify the flushing threads
+      }
+    }
+  }
+
+  /**
+   * Closes the stage. Payloads which are still queued are encoded before the workers stop.
+   */
+  @Override
+  public void close() {
+    running = false;
+    for (Thread worker : workers) {
+      try {
+        worker.join(1000L);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      worker.interrupt();
+    }
+  }
+
+}
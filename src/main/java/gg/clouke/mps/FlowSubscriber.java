@@ -0,0 +1,67 @@
+package gg.clouke.mps;
+
+/**
+ * <p>
+ *  A subscriber pulling payloads from a {@link PayloadPublisher}, at the pace it requests them.
+ *  Mirrors the {@code org.reactivestreams.Subscriber} contract, so it can be adapted to any
+ *  Reactive Streams implementation by delegating each method.
+ * </p>
+ *
+ * <pre>
+ *  {@code
+ *    client.publisher("telemetry").subscribe(new FlowSubscriber() {
+ *      private FlowSubscription subscription;
+ *
+ *      public void onSubscribe(FlowSubscription subscription) {
+ *        this.subscription = subscription;
+ *        subscription.request(100);
+ *      }
+ *
+ *      public void onNext(Payload payload) {
+ *        store(payload);
+ *        subscription.request(1); // one more once this one is stored
+ *      }
+ *
+ *      public void onError(Throwable error) { error.printStackTrace(); }
+ *      public void onComplete() {}
+ *    });
+ *  }
+ * </pre>
+ *
+ * <p>Signals are delivered sequentially, from the thread of the subscription.
+ *
+ * @author Clouke
+ * @since 19.10.2026 23:58
+ * © mongo-pubsub - All Rights Reserved
+ */
+public interface FlowSubscriber {
+
+  /**
+   * Called once, before any other signal, when the subscriber is subscribed.
+   * No payload is delivered until demand is signalled through the subscription.
+   *
+   * @param subscription the subscription to request payloads from
+   */
+  void onSubscribe(FlowSubscription subscription);
+
+  /**
+   * Called for each payload, never more often than requested.
+   *
+   * @param payload the payload which was published
+   */
+  void onNext(Payload payload);
+
+  /**
+   * Called once when the subscription fails for good, e.g. when the change stream can no longer be resumed.
+   * No further signal follows.
+   *
+   * @param error the failure
+   */
+  void onError(Throwable error);
+
+  /**
+   * Called once when the client is closed. No further signal follows.
+   */
+  void onComplete();
+
+}
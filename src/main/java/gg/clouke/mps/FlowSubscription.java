@@ -0,0 +1,27 @@
+package gg.clouke.mps;
+
+/**
+ * The link between a {@link FlowSubscriber} and its {@link PayloadPublisher}, through which
+ * the subscriber signals its demand. Mirrors the {@code org.reactivestreams.Subscription} contract.
+ *
+ * @author Clouke
+ * @since 19.10.2026 23:58
+ * © mongo-pubsub - All Rights Reserved
+ */
+public interface FlowSubscription {
+
+  /**
+   * Requests more payloads. Demand adds up, and is capped at {@link Long#MAX_VALUE}, which means unbounded.
+   * Requesting zero or less fails the subscription with an {@link IllegalArgumentException}.
+   *
+   * @param n the amount of additional payloads to deliver
+   */
+  void request(long n);
+
+  /**
+   * Stops delivering payloads and releases the change stream of the subscription.
+   * Payloads may still be delivered while the cancellation is in progress.
+   */
+  void cancel();
+
+}
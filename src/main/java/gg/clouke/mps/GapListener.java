@@ -0,0 +1,35 @@
+package gg.clouke.mps;
+
+/**
+ * <p>
+ *  A listener notified when payloads of a publisher went missing on a target, and could not
+ *  be recovered within the reorder window configured through
+ *  {@link MongoClientBuilder#sequencing(int, long, java.util.concurrent.TimeUnit)}.
+ * </p>
+ *
+ * <pre>
+ *  {@code
+ *    client.onGap((publisher, target, from, to) ->
+ *      System.err.println("Missed " + (to - from + 1) + " payloads on " + target));
+ *  }
+ * </pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 20:04
+ * © mongo-pubsub - All Rights Reserved
+ */
+@FunctionalInterface
+public interface GapListener {
+
+  /**
+   * Called when the payloads between two sequence numbers were given up on.
+   * Delivery continues with the payload following the gap.
+   *
+   * @param publisher the id of the publisher which sent the missing payloads
+   * @param target the target of the missing payloads
+   * @param from the sequence number of the first missing payload
+   * @param to the sequence number of the last missing payload, inclusive
+   */
+  void onGap(String publisher, String target, long from, long to);
+
+}
@@ -0,0 +1,25 @@
+package gg.clouke.mps;
+
+/**
+ * Represents how the dispatch lanes of the {@link Priority} classes below {@link Priority#CRITICAL}
+ * share their dispatching thread. The critical lane always has a thread of its own.
+ *
+ * @author Clouke
+ * @since 19.10.2026 21:05
+ * © mongo-pubsub - All Rights Reserved
+ */
+public enum LanePolicy {
+
+  /**
+   * Always dispatches from the highest non-empty lane. Lower lanes only move
+   * when every higher lane is empty, and may starve under sustained load.
+   */
+  STRICT,
+
+  /**
+   * Dispatches from the non-empty lanes in proportion to the {@link Priority#weight()} of
+   * their class, so higher lanes are preferred while lower lanes keep moving.
+   */
+  WEIGHTED
+
+}
@@ -0,0 +1,38 @@
+package gg.clouke.mps;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * An annotation that can be used to specify the message type of a {@link TypedSubscriber},
+ * placed next to its {@link Identifier}.
+ * <pre>
+ * {@code
+ *  @Identifier("match-start")
+ *  @MessageType(MatchStart.class)
+ *  public class MatchStartSubscriber implements TypedSubscriber<MatchStart> {
+ *    public void onMessage(MatchStart message) {
+ *      System.out.println("Match " + message.getId() + " started");
+ *    }
+ *  }
+ * }
+ * </pre>
+ *
+ * <p>If absent, the message type is resolved from the type argument of {@link TypedSubscriber}.
+ *
+ * @author Clouke
+ * @since 19.10.2026 18:40
+ * © mongo-pubsub - All Rights Reserved
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface MessageType {
+  /**
+   * Gets the message type of the subscriber.
+   *
+   * @return the message type of the subscriber
+   */
+  Class<?> value();
+}
@@ -1,5 +1,7 @@
 package gg.clouke.mps;
 
+import com.mongodb.client.MongoClient;
+import org.bson.conversions.Bson;
 import gg.acai.acava.Requisites;
 import gg.acai.acava.annotated.Optionally;
 
@@ -54,6 +56,50 @@ public class MongoClientBuilder {
   protected long flushAfterWrite = 5L;
   protected TimeUnit flushUnit = TimeUnit.SECONDS;
   protected boolean clearPreviousIndexes;
+  protected long shutdownTimeout = 5L;
+  protected TimeUnit shutdownUnit = TimeUnit.SECONDS;
+  protected boolean dropOnClose;
+  protected String nodeId;
+  protected Durability durability = Durability.DEFAULT;
+  protected int publishBatchSize = 1;
+  protected long publishLinger;
+  protected int encodeWorkers;
+  protected int encodeCapacity;
+  protected long visibilityTimeout = 30L;
+  protected TimeUnit visibilityUnit = TimeUnit.SECONDS;
+  protected int jobWorkers = 1;
+  protected int maxDeliveryAttempts = 3;
+  protected long redeliveryBackoff = 100L;
+  protected TimeUnit redeliveryUnit = TimeUnit.MILLISECONDS;
+  protected long reconnectBackoff = 100L;
+  protected long maxReconnectBackoff = 30_000L;
+  protected int payloadPoolSize;
+  protected int reorderBuffer;
+  protected long reorderWait;
+  protected long dedupWindow;
+  protected LanePolicy lanePolicy;
+  protected boolean releaseScheduled;
+  protected int laneCapacity;
+  protected int traceSampleRate;
+  protected TraceSink traceSink;
+  protected int dedupMaxIds;
+  protected int streamChunkSize = 255 * 1024;
+  protected long streamRetention = 1L;
+  protected TimeUnit streamRetentionUnit = TimeUnit.HOURS;
+  protected PoolSettings pool;
+  protected PoolSettings publishPool;
+  protected PoolSettings watchPool;
+  protected int watchBatchSize;
+  protected long watchMaxAwaitTime;
+  protected int adaptiveMinBatchSize;
+  protected int adaptiveMaxBatchSize;
+  protected long adaptiveMinAwaitTime;
+  protected long adaptiveMaxAwaitTime;
+  protected long presenceHeartbeat;
+  protected PresencePolicy presencePolicy;
+  protected int partitionCount = 256;
+  protected String partitionGroup;
+  protected long partitionHeartbeat;
 
   protected String host;
   protected int port = 27017;
@@ -64,6 +110,11 @@ public class MongoClientBuilder {
   @Optionally // if the uri is set, the host, port, username, password and database will be ignored.
   protected String uri;
 
+  @Optionally // if the client is set, the connection settings will be ignored.
+  protected MongoClient client;
+  protected String collection = "publishers";
+  protected Bson watchFilter;
+
   /**
    * Applies the flush interval & flush unit to the client.
    *
@@ -95,7 +146,8 @@ public class MongoClientBuilder {
 
   /**
    * Clears the previous indexes on the collection.
-   * This is useful if you want to change the index options, or if you want to change the index key.
+   * This is useful if you want to change the index key. Changing the flush time does not require it,
+   * the existing index is updated in place.
    *
    * @return this {@link MongoClientBuilder} instance for chaining.
    */
@@ -104,6 +156,469 @@ public class MongoClientBuilder {
     return this;
   }
 
+  /**
+   * Applies the maximum time the client may spend on a graceful shutdown.
+   * The timeout covers waiting for in-flight publishes and draining the watcher
+   * when {@link MongoPubSubClient#close()} is called.
+   *
+   * @param shutdownTimeout the maximum time to spend on closing the client.
+   * @param shutdownUnit the unit of the shutdownTimeout parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder shutdownTimeout(long shutdownTimeout, TimeUnit shutdownUnit) {
+    this.shutdownTimeout = shutdownTimeout;
+    this.shutdownUnit = shutdownUnit;
+    return this;
+  }
+
+  /**
+   * Drops the publishers collection when the client is closed.
+   *
+   * <strong>NOTE:</strong> This destroys payloads which other nodes have not consumed yet,
+   * only use it if this client is the last one using the collection.
+   *
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder dropOnClose() {
+    this.dropOnClose = true;
+    return this;
+  }
+
+  /**
+   * Sets the id of this node. Nodes with an explicit id checkpoint the position of their
+   * watcher when closed, and resume from it on their next start.
+   *
+   * @param nodeId the unique id of this node.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder nodeId(String nodeId) {
+    this.nodeId = nodeId;
+    return this;
+  }
+
+  /**
+   * Sets the durability tier used for payloads which have no tier of their own,
+   * neither through {@link MongoPubSubClient#enqueue(String, Payload, Durability)}
+   * nor through {@link MongoPubSubClient#durability(String, Durability)}.
+   *
+   * @param durability the default durability tier.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder defaultDurability(Durability durability) {
+    this.durability = Requisites.requireNonNull(durability, "durability cannot be null.");
+    return this;
+  }
+
+  /**
+   * Enables batched publishing. Payloads are buffered per durability tier, and written
+   * with a single {@code insertMany} once the batch is full or the linger time has elapsed.
+   *
+   * <strong>NOTE:</strong> enqueue no longer waits for the insert to complete when batching is enabled.
+   * Transient errors are retried, and payloads given up on are reported to the listener set through
+   * {@link MongoPubSubClient#onPublishFailure(PublishFailureListener)}. Payloads of the
+   * {@link Durability#MAJORITY} tier are never batched, so their enqueue still fails with the insert.
+   *
+   * @param maxBatchSize the maximum amount of payloads per batch.
+   * @param linger the maximum time to wait for a batch to fill up.
+   * @param unit the unit of the linger parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder batchPublishes(int maxBatchSize, long linger, TimeUnit unit) {
+    this.publishBatchSize = maxBatchSize;
+    this.publishLinger = unit.toNanos(linger);
+    return this;
+  }
+
+  /**
+   * Encodes enqueued payloads off the caller thread. The caller only takes a snapshot of its payload
+   * and hands it over to a worker, which stamps & encodes it to raw BSON for its publish lane.
+   * Payloads of the same target keep their order.
+   *
+   * <strong>NOTE:</strong> enqueue no longer waits for the insert nor reports its failure, and typed
+   * messages are encoded by the worker, so they must not be modified after they are enqueued.
+   *
+   * @param workers the amount of encoding threads.
+   * @param capacity the maximum amount of payloads queued per worker, enqueue waits once it is reached.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder encodeWorkers(int workers, int capacity) {
+    this.encodeWorkers = workers;
+    this.encodeCapacity = capacity;
+    return this;
+  }
+
+  /**
+   * Sets how long a claimed job stays hidden from the other nodes of its consumer group.
+   * If the job is not acknowledged within this time, it is redelivered.
+   *
+   * @param visibilityTimeout the visibility timeout of claimed jobs.
+   * @param visibilityUnit the unit of the visibilityTimeout parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder visibilityTimeout(long visibilityTimeout, TimeUnit visibilityUnit) {
+    this.visibilityTimeout = visibilityTimeout;
+    this.visibilityUnit = visibilityUnit;
+    return this;
+  }
+
+  /**
+   * Sets the amount of threads processing jobs of the {@link WorkQueue} on this node.
+   *
+   * @param jobWorkers the amount of worker threads.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder jobWorkers(int jobWorkers) {
+    this.jobWorkers = jobWorkers;
+    return this;
+  }
+
+  /**
+   * Sets how many times a payload or job is delivered before it is moved to the dead-letter collection.
+   *
+   * @param maxDeliveryAttempts the maximum amount of delivery attempts.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder maxDeliveryAttempts(int maxDeliveryAttempts) {
+    this.maxDeliveryAttempts = maxDeliveryAttempts;
+    return this;
+  }
+
+  /**
+   * Sets the backoff after the first failed delivery attempt, which doubles with each following attempt,
+   * up to 5 seconds. Each delay is picked at random up to the backoff. Redeliveries hold back the later
+   * payloads of their target, keep the backoff short for latency-sensitive targets.
+   *
+   * <p><strong>NOTE:</strong> without {@link #priorityLanes(LanePolicy, int)}, payloads are delivered on
+   * the watcher thread, so a failing subscriber holds back the payloads of every target for up to
+   * {@code maxDeliveryAttempts - 1} backoffs. Enable priority lanes to confine the wait to its lane.
+   *
+   * @param redeliveryBackoff the backoff after the first failed attempt.
+   * @param redeliveryUnit the unit of the redeliveryBackoff parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder redeliveryBackoff(long redeliveryBackoff, TimeUnit redeliveryUnit) {
+    this.redeliveryBackoff = redeliveryBackoff;
+    this.redeliveryUnit = redeliveryUnit;
+    return this;
+  }
+
+  /**
+   * Sets the connection pool of the mongo client, which serves every operation without a dedicated pool,
+   * e.g. flushing, checkpoints & work queues. Ignored if the client is shared through {@link #client(MongoClient)}.
+   *
+   * @param maxSize the maximum amount of connections.
+   * @param minSize the amount of connections kept open while idle.
+   * @param maxWaitTime the maximum time an operation waits for a connection before failing.
+   * @param unit the unit of the maxWaitTime parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder connectionPool(int maxSize, int minSize, long maxWaitTime, TimeUnit unit) {
+    this.pool = new PoolSettings(maxSize, minSize, unit.toMillis(maxWaitTime));
+    return this;
+  }
+
+  /**
+   * Publishes payloads through a dedicated mongo client with its own connection pool,
+   * so a publish burst never waits for, nor starves, the connections of the watcher & maintenance.
+   *
+   * <strong>NOTE:</strong> the dedicated client is built from the connection settings of this builder,
+   * {@link #uri(String)} or {@link #host(String)} must be set even if the client is shared.
+   *
+   * @param maxSize the maximum amount of publishing connections.
+   * @param minSize the amount of publishing connections kept open while idle.
+   * @param maxWaitTime the maximum time a publish waits for a connection before failing.
+   * @param unit the unit of the maxWaitTime parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder publishPool(int maxSize, int minSize, long maxWaitTime, TimeUnit unit) {
+    this.publishPool = new PoolSettings(maxSize, minSize, unit.toMillis(maxWaitTime));
+    return this;
+  }
+
+  /**
+   * Watches the publishers collection through a dedicated mongo client with its own connection pool,
+   * so the long polls of the change stream never hold a connection needed to publish.
+   *
+   * <strong>NOTE:</strong> the dedicated client is built from the connection settings of this builder,
+   * {@link #uri(String)} or {@link #host(String)} must be set even if the client is shared.
+   *
+   * @param maxSize the maximum amount of watching connections.
+   * @param minSize the amount of watching connections kept open while idle.
+   * @param maxWaitTime the maximum time the watcher waits for a connection before reconnecting.
+   * @param unit the unit of the maxWaitTime parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder watchPool(int maxSize, int minSize, long maxWaitTime, TimeUnit unit) {
+    this.watchPool = new PoolSettings(maxSize, minSize, unit.toMillis(maxWaitTime));
+    return this;
+  }
+
+  /**
+   * Sets how the change stream cursor polls the server. A lower maxAwaitTime returns empty polls
+   * sooner, making the watcher notice a close or drain faster, at the cost of more round trips.
+   *
+   * @param batchSize the maximum amount of changes per batch, 0 for the server default.
+   * @param maxAwaitTime the maximum time the server waits for new changes per poll, 0 for the server default of 1 second.
+   * @param unit the unit of the maxAwaitTime parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder watchCursor(int batchSize, long maxAwaitTime, TimeUnit unit) {
+    this.watchBatchSize = batchSize;
+    this.watchMaxAwaitTime = unit.toMillis(maxAwaitTime);
+    this.adaptiveMaxBatchSize = 0;
+    return this;
+  }
+
+  /**
+   * Adapts the batchSize & maxAwaitTime of the change stream to the arrival rate of payloads, within
+   * the given bounds. Quiet streams use small batches and short polls for low latency, busy streams
+   * large batches and long polls for throughput. The batch size shrinks while the priority lanes
+   * back up. The stream is reopened from its resume token to apply new settings, at most every 5 seconds.
+   *
+   * @param minBatchSize the smallest batch size.
+   * @param maxBatchSize the largest batch size.
+   * @param minAwaitTime the shortest time the server waits for new changes per poll.
+   * @param maxAwaitTime the longest time the server waits for new changes per poll.
+   * @param unit the unit of both await times.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   * @see #watchCursor(int, long, TimeUnit)
+   */
+  public MongoClientBuilder adaptiveWatchCursor(int minBatchSize, int maxBatchSize,
+                                                long minAwaitTime, long maxAwaitTime, TimeUnit unit) {
+    this.adaptiveMinBatchSize = Math.max(1, minBatchSize);
+    this.adaptiveMaxBatchSize = Math.max(this.adaptiveMinBatchSize, maxBatchSize);
+    this.adaptiveMinAwaitTime = unit.toMillis(minAwaitTime);
+    this.adaptiveMaxAwaitTime = unit.toMillis(maxAwaitTime);
+    return this;
+  }
+
+  /**
+   * Sets the backoff between attempts to reopen a failed change stream. The delay ceiling doubles
+   * with each consecutive failure up to the maximum, and each delay is picked at random below it.
+   *
+   * @param reconnectBackoff the ceiling of the first delay.
+   * @param maxReconnectBackoff the maximum ceiling of the delay.
+   * @param unit the unit of both delays.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder reconnectBackoff(long reconnectBackoff, long maxReconnectBackoff, TimeUnit unit) {
+    this.reconnectBackoff = unit.toMillis(reconnectBackoff);
+    this.maxReconnectBackoff = unit.toMillis(maxReconnectBackoff);
+    return this;
+  }
+
+  /**
+   * Enables pooled payloads. Payloads delivered to subscribers are recycled once they are closed,
+   * instead of allocating a new payload & maps for each delivery.
+   *
+   * <strong>NOTE:</strong> subscribers must not use a payload after closing it.
+   * Run with {@code -Dmps.leakDetection=true} to report payloads which are never closed.
+   *
+   * @param maxIdlePerStripe the maximum amount of idle payloads kept per pool stripe.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder pooledPayloads(int maxIdlePerStripe) {
+    this.payloadPoolSize = maxIdlePerStripe;
+    return this;
+  }
+
+  /**
+   * Enables tracing of one in about every {@code sampleRate} enqueued payloads, keeping the
+   * most recent 1024 traces in a {@link RingBufferTraceSink}, dumped through {@link Tracer#dump()}.
+   *
+   * @param sampleRate traces one in this many enqueued payloads.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   * @see #tracing(int, TraceSink)
+   */
+  public MongoClientBuilder tracing(int sampleRate) {
+    return tracing(sampleRate, new RingBufferTraceSink(1024));
+  }
+
+  /**
+   * Enables tracing of one in about every {@code sampleRate} enqueued payloads. Each traced payload
+   * records the time it was enqueued, encoded, acknowledged, received, decoded and handled, see {@link Stage}.
+   * The publishing & receiving node both pass their trace of the payload to their own sink.
+   *
+   * <strong>NOTE:</strong> receiving nodes only record the traces of sampled payloads if tracing is
+   * enabled on them as well, a sample rate of 0 records received traces without sampling any.
+   *
+   * @param sampleRate traces one in this many enqueued payloads.
+   * @param sink the sink receiving the completed traces.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder tracing(int sampleRate, TraceSink sink) {
+    this.traceSampleRate = sampleRate;
+    this.traceSink = Requisites.requireNonNull(sink, "sink cannot be null.");
+    return this;
+  }
+
+  /**
+   * Enables in-order delivery per publisher & target. Payloads arriving ahead of their sequence are
+   * held until the missing payloads arrive, up to the buffer size and the maximum wait. Gaps which
+   * cannot be filled are reported to {@link MongoPubSubClient#onGap(GapListener)}.
+   *
+   * <strong>NOTE:</strong> sequencing cannot be combined with a {@link #watchFilter(Bson)}, as the
+   * payloads it filters out would leave gaps in the sequences of their publishers.
+   *
+   * @param reorderBuffer the maximum amount of payloads held per publisher & target.
+   * @param maxWait the maximum time to wait for a missing payload.
+   * @param unit the unit of the maxWait parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder sequencing(int reorderBuffer, long maxWait, TimeUnit unit) {
+    this.reorderBuffer = reorderBuffer;
+    this.reorderWait = unit.toMillis(maxWait);
+    return this;
+  }
+
+  /**
+   * Makes this node take part in releasing payloads scheduled through
+   * {@link MongoPubSubClient#enqueueAt(String, Payload, java.time.Instant)}. The releasing nodes elect
+   * a single leader, which releases every scheduled payload, and hand over when it leaves.
+   *
+   * <strong>NOTE:</strong> at least one node must release scheduled payloads, any node can schedule them.
+   *
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder releaseScheduled() {
+    this.releaseScheduled = true;
+    return this;
+  }
+
+  /**
+   * Enables priority lanes. Received payloads are queued in one lane per {@link Priority} class and
+   * dispatched off the watcher thread, so latency-critical targets no longer wait behind high-volume ones.
+   * Set the class of a target through {@link MongoPubSubClient#priority(String, Priority)}. Every payload of
+   * a target queues in the lane of its class, so a target is still delivered in order, one payload at a time.
+   *
+   * <p>The {@link Priority#CRITICAL} lane has a dispatching thread of its own, the other lanes share a second
+   * one. When the lane of a {@link Priority#NORMAL} or {@link Priority#LOW} target is full, the payload is
+   * moved to the dead-letter collection rather than holding up the watcher.
+   *
+   * @param policy how the lanes below {@link Priority#CRITICAL} share their dispatching thread.
+   * @param capacity the maximum amount of payloads queued per lane.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder priorityLanes(LanePolicy policy, int capacity) {
+    this.lanePolicy = Requisites.requireNonNull(policy, "policy cannot be null.");
+    this.laneCapacity = capacity;
+    return this;
+  }
+
+  /**
+   * Enables deduplication. Payloads received again within the window, e.g. replayed after a
+   * reconnect or written twice by a retry of the client, are dropped before reaching the subscribers.
+   * The window takes at most {@code maxIds * 43} bytes of memory, which never grows. If more payloads
+   * than maxIds arrive within the window, the window is shortened.
+   *
+   * @param window the minimum time to remember a payload for.
+   * @param unit the unit of the window parameter.
+   * @param maxIds the maximum amount of payloads remembered within the window.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder deduplicate(long window, TimeUnit unit, int maxIds) {
+    this.dedupWindow = unit.toMillis(window);
+    this.dedupMaxIds = maxIds;
+    return this;
+  }
+
+  /**
+   * Enables the presence registry. Each node heartbeats the targets it listens to, and keeps a
+   * local view of the targets every node listens to. Payloads enqueued through
+   * {@link MongoPubSubClient#enqueue(String, Payload)} to a target no node listens to are handled by
+   * the policy, saving their write & change stream fan-out. Check a target through
+   * {@link MongoPubSubClient#isListened(String)}.
+   *
+   * <strong>NOTE:</strong> a registration reaches the other nodes within about 100 milliseconds,
+   * payloads enqueued by them meanwhile may be dropped. The policy applies to streams as well,
+   * while scheduled payloads & jobs are never dropped, as they wait for a listener to appear.
+   *
+   * @param heartbeat the interval between heartbeats, a node is considered gone after three missed heartbeats.
+   * @param unit the unit of the heartbeat parameter.
+   * @param policy what to do with payloads whose target no node listens to.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder presence(long heartbeat, TimeUnit unit, PresencePolicy policy) {
+    if (heartbeat <= 0L)
+      throw new IllegalStateException("Presence heartbeat must be positive.");
+    this.presenceHeartbeat = unit.toMillis(heartbeat);
+    this.presencePolicy = Requisites.requireNonNull(policy, "policy cannot be null.");
+    return this;
+  }
+
+  /**
+   * Sets the amount of partitions the keys of {@link MongoPubSubClient#enqueuePartitioned(String, String, String, Payload)}
+   * are hashed into, <b>256</b> by default. Partitions are the unit moved between the members of a group.
+   *
+   * <strong>NOTE:</strong> every node publishing to or being a member of a group must use the same partition count.
+   *
+   * @param partitionCount the amount of partitions.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder partitions(int partitionCount) {
+    if (partitionCount <= 0)
+      throw new IllegalStateException("Partition count must be positive.");
+    this.partitionCount = partitionCount;
+    return this;
+  }
+
+  /**
+   * Makes this node a member of a partition group. Payloads enqueued to the group through
+   * {@link MongoPubSubClient#enqueuePartitioned(String, String, String, Payload)} are delivered to the one
+   * member owning the partition of their key. Partitions are rebalanced whenever a member joins or leaves,
+   * moving as few partitions as possible.
+   *
+   * @param group the group to join.
+   * @param heartbeat the interval between heartbeats, a member is considered gone after three missed heartbeats.
+   * @param unit the unit of the heartbeat parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder partitionGroup(String group, long heartbeat, TimeUnit unit) {
+    if (heartbeat <= 0L)
+      throw new IllegalStateException("Partition heartbeat must be positive.");
+    this.partitionGroup = Requisites.requireNonNull(group, "group cannot be null.");
+    this.partitionHeartbeat = unit.toMillis(heartbeat);
+    return this;
+  }
+
+  /**
+   * Configures the chunks of blobs published through {@link MongoPubSubClient#enqueueStream(String, java.io.InputStream, Payload)}.
+   * Chunks are kept for the retention time, which must cover the time subscribers need to read the stream.
+   *
+   * @param chunkSize the size of each chunk in bytes, 255KB by default.
+   * @param retention the time to keep chunks for, 1 hour by default.
+   * @param unit the unit of the retention parameter.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder streamChunks(int chunkSize, long retention, TimeUnit unit) {
+    if (chunkSize <= 0 || chunkSize > 15 * 1024 * 1024)
+      throw new IllegalStateException("Chunk size must be between 1 byte and 15MB.");
+    this.streamChunkSize = chunkSize;
+    this.streamRetention = retention;
+    this.streamRetentionUnit = unit;
+    return this;
+  }
+
+  /**
+   * Applies a server-side filter to the change stream of this node, only payloads matching
+   * the filter are received. Fields of the payload are prefixed with {@code fullDocument}, which
+   * allows filtering on the content of nested parameters.
+   *
+   * <pre>{@code
+   * MongoPubSubClient.newBuilder()
+   *   .watchFilter(Filters.eq("fullDocument.position.world", "lobby"))
+   * }</pre>
+   *
+   * <strong>NOTE:</strong> cannot be combined with {@link #sequencing(int, long, TimeUnit)}.
+   *
+   * @param watchFilter the filter applied as a {@code $match} stage.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder watchFilter(Bson watchFilter) {
+    this.watchFilter = watchFilter;
+    return this;
+  }
+
   /**
    * Sets the host of the database.
    *
@@ -186,14 +701,61 @@ public class MongoClientBuilder {
     return this;
   }
 
+  /**
+   * Shares an existing mongo client, and its connection pool, with the client being built.
+   * <strong>NOTE:</strong> This will override the uri, host, port, username and password fields.
+   * The shared client is not closed when the {@link MongoPubSubClient} is closed.
+   * Marked as {@link Optionally}
+   *
+   * <pre>{@code
+   * MongoPubSubClient hot = MongoPubSubClient.newBuilder()
+   *   .uri("mongodb://localhost:27017")
+   *   .database("game")
+   *   .build();
+   * MongoPubSubClient cold = MongoPubSubClient.newBuilder()
+   *   .client(hot.client())
+   *   .database("game")
+   *   .collection("publishers-cold")
+   *   .build();
+   * }</pre>
+   *
+   * @param client the mongo client to share.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  @Optionally
+  public MongoClientBuilder client(MongoClient client) {
+    this.client = client;
+    return this;
+  }
+
+  /**
+   * Sets the name of the publishers collection, <b>"publishers"</b> by default.
+   * The auxiliary collections, e.g. the dead letters, are named after it.
+   * Clients using different collections in the same database do not see each other's payloads.
+   *
+   * @param collection the name of the publishers collection.
+   * @return this {@link MongoClientBuilder} instance for chaining.
+   */
+  public MongoClientBuilder collection(String collection) {
+    this.collection = Requisites.requireNonNull(collection, "collection cannot be null.");
+    return this;
+  }
+
   /**
    * Builds the {@link MongoPubSubClient} instance.
    *
-   * @throws NullPointerException if the uri is not set & the host is null.
+   * @throws NullPointerException if the database is null, or if neither the client, the uri nor the host is set.
+   * @throws IllegalStateException if a dedicated pool is set without the uri or host, or sequencing is combined with a watch filter.
    * @return a new {@link MongoPubSubClient} instance.
    */
   public MongoPubSubClient build() {
-    if (uri == null) {
+    Requisites.requireNonNull(database, "database cannot be null.");
+    if ((publishPool != null || watchPool != null) && uri == null && host == null)
+      throw new IllegalStateException("Dedicated publish & watch pools require the uri or host to be set.");
+    if (reorderBuffer > 0 && watchFilter != null)
+      throw new IllegalStateException("Sequencing cannot be combined with a watch filter, which leaves gaps in the sequences.");
+
+    if (client == null && uri == null) {
       // If the uri is not set, we need to check if the other fields are set.
       Requisites.requireNonNull(host, "host cannot be null. use uri() to set the uri, or set the host, port, username, password and database fields.");
     }
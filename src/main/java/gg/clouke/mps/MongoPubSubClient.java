@@ -1,23 +1,44 @@
 package gg.clouke.mps;
 
 import com.mongodb.ConnectionString;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoCredential;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
 import gg.acai.acava.Requisites;
 import gg.acai.acava.annotated.Use;
 import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.codec.MessageCodec;
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.types.ObjectId;
 
 import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 /**
  * Represents the main class of the mongo-pubsub library.
@@ -25,16 +46,20 @@ import java.util.concurrent.TimeUnit;
  * <p>Responsible for managing the connection to the database and the collection,
  * allowing interaction with the mongo client, watcher and the subscribers.
  *
- * <p>Holds an instance of the {@link MongoPubSubClient} class, which can be accessed
- * through the {@link #getInstance()} method.
+ * <p>Clients are fully instance-scoped, each one has its own watcher, subscribers and metrics.
+ * Multiple clients can run in the same process, e.g. one per database or traffic class, and may
+ * share one connection pool through {@link MongoClientBuilder#client(MongoClient)}.
  *
  * <p><strong>NOTE:</strong> cannot be instantiated directly, use {@link
  * #newBuilder()} to create a new instance.
  *
- * <p><b>Throws:</b>
- * <ul>
- *   <li>{@link IllegalStateException} if the client is already initialized.</li>
- * </ul>
+ * <p>Closing the client is graceful: it stops accepting new payloads, waits for in-flight
+ * publishes, drains the watcher and checkpoints its resume position, all within the
+ * shutdown timeout configured through {@link MongoClientBuilder#shutdownTimeout(long, TimeUnit)}.
+ *
+ * <p>Payloads are published through one {@link PublishLane} per {@link Durability} tier,
+ * the tier can be chosen per enqueue call or per target. With an {@link EncodeStage}, payloads
+ * are stamped & encoded by its workers instead of the caller thread.
  *
  * @author Clouke
  * @since 24.02.2023 05:12
@@ -43,13 +68,20 @@ import java.util.concurrent.TimeUnit;
 @Use("Use MongoClientBuilder to create a new instance of this class.")
 public final class MongoPubSubClient implements Closeable {
 
-  private static MongoPubSubClient INSTANCE;
+  private static volatile MongoPubSubClient INSTANCE;
+  private static final int NAMESPACE_NOT_FOUND = 26;
+  private static final int INDEX_NOT_FOUND = 27;
+  private static final int INVALID_OPTIONS = 72;
+  private static final int REPLAY_BATCH_SIZE = 1_000;
+  private static final int DEFAULT_PREFETCH = 64;
 
   /**
-   * Gets the instance of the {@link MongoPubSubClient} class.
+   * Gets the most recently built instance of the {@link MongoPubSubClient} class.
    *
-   * @return the instance of this client.
+   * @return the most recently built client.
+   * @deprecated clients are instance-scoped, keep a reference to the client you built instead.
    */
+  @Deprecated
   public static MongoPubSubClient getInstance() {
     return INSTANCE;
   }
@@ -65,27 +97,92 @@ public final class MongoPubSubClient implements Closeable {
 
   private final CollectionWatcher watcher;
   private final MongoClient client;
+  private final boolean ownsClient;
+  private final MongoClient publishClient;
+  private final MongoClient watchClient;
+  private final MongoCollection<Document> watched;
+  private final MongoDatabase database;
   private final MongoCollection<Document> publishers;
   private final Subscribers subscribers;
+  private final WorkQueue workQueue;
+  private final Streams streams;
+  private final Scheduler scheduler;
+  private final Presence presence;
+  private final Routing routing;
+  private final Dispatcher dispatcher;
+  private final DeadLetters deadLetters;
+  private final Metrics metrics = new Metrics();
+  private final Tracer tracer;
+  private final Checkpoints checkpoints;
+  private final String nodeId;
+  private final String publisherId;
+  private final Map<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+  private final long shutdownTimeout;
+  private final boolean dropOnClose;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Map<Durability, PublishLane<?>> lanes = new EnumMap<>(Durability.class);
+  private final EncodeStage encoder;
+  private final Set<CursorSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final Map<String, Durability> durabilities = new ConcurrentHashMap<>();
+  private final Durability durability;
+  private final Map<String, Priority> priorities = new ConcurrentHashMap<>();
+  private volatile PublishFailureListener publishFailureListener;
+  private volatile boolean closing;
+  private volatile boolean replayIndexed;
 
   /**
    * Constructs a new instance of the {@link MongoPubSubClient} class.
    * delegates the construction from the {@link MongoClientBuilder}.
    *
    * @param b the builder to construct the client.
-   * @throws IllegalStateException if the client is already initialized.
    */
   public MongoPubSubClient(MongoClientBuilder b) {
-    if (INSTANCE != null)
-      throw new IllegalStateException("MongoPubSubClient is already initialized.");
-
-    INSTANCE = this;
-    MongoClientSettings settings = doBuildProcedure(b);
-    MongoClient client = MongoClients.create(settings);
+    ownsClient = b.client == null;
+    MongoClient client = ownsClient
+      ? MongoClients.create(doBuildProcedure(b, b.pool))
+      : b.client;
     this.client = client;
-    publishers = client
-      .getDatabase(b.database)
-      .getCollection("publishers");
+    MongoDatabase database = client.getDatabase(b.database);
+    this.database = database;
+    publishers = database.getCollection(b.collection);
+
+    /*
+     * dedicated clients keep publish bursts & change stream polls from competing for connections.
+     */
+    publishClient = b.publishPool != null ? MongoClients.create(doBuildProcedure(b, b.publishPool)) : null;
+    watchClient = b.watchPool != null ? MongoClients.create(doBuildProcedure(b, b.watchPool)) : null;
+    MongoCollection<Document> published = publishClient != null
+      ? publishClient.getDatabase(b.database).getCollection(b.collection)
+      : publishers;
+    watched = watchClient != null
+      ? watchClient.getDatabase(b.database).getCollection(b.collection)
+      : publishers;
+    nodeId = b.nodeId != null ? b.nodeId : UUID.randomUUID().toString();
+    publisherId = nodeId + "/" + new ObjectId().toHexString(); // sequences restart with each client
+    tracer = new Tracer(nodeId, b.traceSampleRate, b.traceSink);
+    checkpoints = new Checkpoints(database
+      .getCollection(b.collection + ":checkpoints"), nodeId, b.nodeId != null);
+    shutdownTimeout = b.shutdownUnit.toNanos(b.shutdownTimeout);
+    dropOnClose = b.dropOnClose;
+    deadLetters = new DeadLetters(database
+      .getCollection(b.collection + ":deadletters"), nodeId, metrics);
+    durability = b.durability;
+    encoder = b.encodeWorkers > 0 ? new EncodeStage(b.encodeWorkers, b.encodeCapacity) : null;
+    for (Durability tier : Durability.values()) {
+      MongoCollection<Document> collection = tier.writeConcern() == null
+        ? published
+        : published.withWriteConcern(tier.writeConcern());
+      int batchSize = tier == Durability.MAJORITY ? 1 : b.publishBatchSize; // acknowledged to the caller
+      if (encoder != null) {
+        Codec<Document> codec = collection.getCodecRegistry().get(Document.class);
+        lanes.put(tier, new PublishLane<>(tier, collection.withDocumentClass(RawBsonDocument.class),
+          document -> new RawBsonDocument(document, codec), batchSize, b.publishLinger, tracer,
+          (raw, error) -> publishFailed(raw.decode(codec), error)));
+      } else {
+        lanes.put(tier, new PublishLane<>(tier, collection, Function.identity(),
+          batchSize, b.publishLinger, tracer, this::publishFailed));
+      }
+    }
 
     /*
      * Check for the clearPreviousIndexes flag, if true, drop the index
@@ -95,20 +192,37 @@ public final class MongoPubSubClient implements Closeable {
     }
 
     if (b.flushAfterWrite != -1L) {
-      publishers.createIndex(Indexes
-        .ascending("payload:send"), new IndexOptions()
-        /*
-         * automatically flush payloads that are older than the specified time.
-         */
-        .expireAfter(b.flushAfterWrite, b.flushUnit));
+      /*
+       * automatically flush payloads that are older than the specified time.
+       */
+      expireAfter(b.flushAfterWrite, b.flushUnit);
     }
 
-    this.watcher = new CollectionWatcher(this);
-    this.subscribers = new Subscribers();
+    /*
+     * payloads with their own expiry are flushed once it is reached.
+     */
+    publishers.createIndex(Indexes.ascending(Payload.EXPIRE_AT), new IndexOptions()
+      .expireAfter(0L, TimeUnit.SECONDS)
+      .sparse(true));
+
+    this.subscribers = new Subscribers(b.payloadPoolSize > 0 ? new PayloadPool(b.payloadPoolSize, metrics) : null, tracer);
+    this.dispatcher = new Dispatcher(this, deadLetters, b);
+    this.workQueue = new WorkQueue(this, database
+      .getCollection(b.collection + ":jobs"), deadLetters, b);
+    this.streams = new Streams(this, database
+      .getCollection(b.collection + ":chunks"), deadLetters, b);
+    this.scheduler = new Scheduler(this, database.getCollection(b.collection + ":scheduled"),
+      database.getCollection(b.collection + ":leases"), b);
+    this.routing = new Routing(this, database.getCollection(b.collection + ":members"), b);
+    this.presence = b.presencePolicy != null
+      ? new Presence(this, database.getCollection(b.collection + ":presence"), b)
+      : null;
+    this.watcher = new CollectionWatcher(this, b);
+    INSTANCE = this;
   }
 
   /**
-   * Gets the mongo client.
+   * Gets the mongo client, which may be shared with other clients.
    *
    * @return the mongo client.
    */
@@ -127,6 +241,147 @@ public final class MongoPubSubClient implements Closeable {
     return publishers;
   }
 
+  /**
+   * Gets the publishers collection to watch, served by the dedicated watch pool if configured.
+   *
+   * @return the publishers collection to watch.
+   * @see MongoClientBuilder#watchPool(int, int, long, TimeUnit)
+   */
+  @Nonnull
+  MongoCollection<Document> watched() {
+    return watched;
+  }
+
+  /**
+   * Gets the id of this node.
+   *
+   * @return the node id, generated if none was set through the builder.
+   */
+  @Nonnull
+  public String nodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Gets the id this client stamps on the payloads it publishes, unique to this client instance.
+   *
+   * @return the publisher id.
+   */
+  @Nonnull
+  public String publisherId() {
+    return publisherId;
+  }
+
+  /**
+   * Sets the listener notified when payloads went missing, and could not be recovered
+   * within the reorder window.
+   *
+   * @param listener the gap listener.
+   * @return the instance of this client.
+   * @throws IllegalStateException if sequencing was not enabled through {@link MongoClientBuilder#sequencing(int, long, TimeUnit)}.
+   */
+  public MongoPubSubClient onGap(GapListener listener) {
+    dispatcher.onGap(listener);
+    return this;
+  }
+
+  /**
+   * Sets the listener notified when a payload could not be published after its caller returned,
+   * by a batched publish lane or an encode worker. Without a listener, such failures are only
+   * logged and counted as {@link Metric#PUBLISH_FAILURES}.
+   *
+   * @param listener the failure listener, or null to remove it.
+   * @return the instance of this client.
+   */
+  public MongoPubSubClient onPublishFailure(PublishFailureListener listener) {
+    this.publishFailureListener = listener;
+    return this;
+  }
+
+  /**
+   * Reports a payload which could not be published after its caller returned.
+   *
+   * @param document the stamped payload.
+   * @param error the error of the last attempt.
+   */
+  void publishFailed(Document document, Throwable error) {
+    metrics.increment(Metric.PUBLISH_FAILURES);
+    String target = document.getString("payload:target");
+    PublishFailureListener listener = this.publishFailureListener;
+    if (listener == null) {
+      System.err.println("Could not publish payload to target " + target + ": " + error);
+      return;
+    }
+
+    try {
+      listener.onFailure(target, Payload.fromDocument(document), error);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Gets the metrics of this client.
+   *
+   * @return the metrics.
+   */
+  @Nonnull
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Gets the tracer of this client, recording the lifecycle of sampled payloads.
+   * Use {@link Tracer#dump()} to get the most recent traces of the default sink.
+   *
+   * @return the tracer.
+   * @see MongoClientBuilder#tracing(int)
+   */
+  @Nonnull
+  public Tracer tracer() {
+    return tracer;
+  }
+
+  /**
+   * Gets the dead-letter collection, holding payloads which exhausted their delivery attempts.
+   *
+   * @return the dead-letter collection.
+   */
+  @Nonnull
+  public MongoCollection<Document> deadLetters() {
+    return deadLetters.collection();
+  }
+
+  /**
+   * Gets the routing of node-addressed & partitioned payloads.
+   *
+   * @return the routing.
+   */
+  @Nonnull
+  Routing routing() {
+    return routing;
+  }
+
+  /**
+   * Gets the dispatcher delivering payloads to the subscribers.
+   *
+   * @return the dispatcher.
+   */
+  @Nonnull
+  Dispatcher dispatcher() {
+    return dispatcher;
+  }
+
+  /**
+   * Gets the checkpoint store of this node.
+   *
+   * @return the checkpoint store.
+   */
+  @Nonnull
+  Checkpoints checkpoints() {
+    return checkpoints;
+  }
+
   /**
    * Gets the watcher.
    *
@@ -147,6 +402,26 @@ public final class MongoPubSubClient implements Closeable {
     return subscribers;
   }
 
+  /**
+   * Gets the work queue, where each job is processed by a single node.
+   *
+   * @return the work queue.
+   */
+  @Nonnull
+  public WorkQueue workQueue() {
+    return workQueue;
+  }
+
+  /**
+   * Gets the streams, carrying blobs which exceed the size limit of a payload.
+   *
+   * @return the streams.
+   */
+  @Nonnull
+  public Streams streams() {
+    return streams;
+  }
+
   /**
    * Updates the flush after write time.
    *
@@ -155,13 +430,105 @@ public final class MongoPubSubClient implements Closeable {
    * @return the instance of this client.
    */
   public MongoPubSubClient updateFlushAfterWrite(long time, TimeUnit unit) {
-    publishers.dropIndex(Indexes.ascending("payload:send"));
+    expireAfter(time, unit);
+    return this;
+  }
+
+  /**
+   * Applies the flush time to the TTL index of the publishers collection.
+   *
+   * <p>An existing index is changed in place through {@code collMod}, which neither rebuilds
+   * the index nor leaves payloads un-expired in the meantime. The index is only created if
+   * it does not exist, and only rebuilt if it exists without a TTL.
+   *
+   * @param time the time to flush after.
+   * @param unit the unit of the time.
+   */
+  private void expireAfter(long time, TimeUnit unit) {
+    long seconds = unit.toSeconds(time);
+    try {
+      database.runCommand(new Document("collMod", publishers.getNamespace().getCollectionName())
+        .append("index", new Document("keyPattern", new Document("payload:send", 1))
+          .append("expireAfterSeconds", seconds)));
+      return;
+    } catch (MongoCommandException e) {
+      switch (e.getErrorCode()) {
+        case NAMESPACE_NOT_FOUND:
+        case INDEX_NOT_FOUND:
+          break;
+        case INVALID_OPTIONS: // not a TTL index yet
+          publishers.dropIndex(Indexes.ascending("payload:send"));
+          break;
+        default:
+          throw e;
+      }
+    }
+
     publishers.createIndex(Indexes
       .ascending("payload:send"), new IndexOptions()
-      .expireAfter(time, unit));
+      .expireAfter(seconds, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Sets the durability tier of every payload enqueued on the given target,
+   * unless the tier is specified on the enqueue call itself.
+   *
+   * @param target the target to apply the tier to.
+   * @param durability the durability tier, or null to fall back to the default tier.
+   * @return the instance of this client.
+   */
+  public MongoPubSubClient durability(@Nonnull String target, Durability durability) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    if (durability == null) {
+      durabilities.remove(target);
+    } else {
+      durabilities.put(target, durability);
+    }
     return this;
   }
 
+  /**
+   * Gets the durability tier payloads on the given target are enqueued with.
+   *
+   * @param target the target.
+   * @return the durability tier of the target, or the default tier if none was set.
+   */
+  @Nonnull
+  public Durability durability(@Nonnull String target) {
+    return durabilities.getOrDefault(target, durability);
+  }
+
+  /**
+   * Sets the priority class of a target, deciding which dispatch lane all of its payloads queue in on this node.
+   * Change the class of a target before it receives payloads, payloads already queued in its former lane may
+   * otherwise be delivered alongside the first payloads of its new lane.
+   *
+   * @param target the target to apply the class to.
+   * @param priority the priority class, or null to fall back to {@link Priority#NORMAL}.
+   * @return the instance of this client.
+   * @see MongoClientBuilder#priorityLanes(LanePolicy, int)
+   */
+  public MongoPubSubClient priority(@Nonnull String target, Priority priority) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    if (priority == null) {
+      priorities.remove(target);
+    } else {
+      priorities.put(target, priority);
+    }
+    return this;
+  }
+
+  /**
+   * Gets the priority class of a target.
+   *
+   * @param target the target.
+   * @return the priority class of the target, or {@link Priority#NORMAL} if none was set.
+   */
+  @Nonnull
+  public Priority priority(@Nonnull String target) {
+    return priorities.getOrDefault(target, Priority.NORMAL);
+  }
+
   /**
    * Flushes the publishers collection.
    *
@@ -193,25 +560,586 @@ public final class MongoPubSubClient implements Closeable {
    * @return Returns a waiter that can be used to
    * ensure the payload being sent with thread locking
    * before closing the client.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
    */
   @Nonnull @SuppressWarnings("UnusedReturnValue")
   public Waiter enqueue(@Nonnull String target, Payload payload) {
+    return enqueue(target, payload, durability(target));
+  }
+
+  /**
+   * Enqueues a new payload to the publishers collection with the given durability tier.
+   *
+   * @param target the target of the payload.
+   * @param payload the payload to enqueue.
+   * @param durability the durability tier to publish the payload with.
+   *
+   * @return Returns a waiter that can be used to
+   * ensure the payload being sent with thread locking
+   * before closing the client.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
+   */
+  @Nonnull @SuppressWarnings("UnusedReturnValue")
+  public Waiter enqueue(@Nonnull String target, Payload payload, @Nonnull Durability durability) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    Requisites.requireNonNull(durability, "durability cannot be null.");
+    if (!admit(target))
+      return watcher().waiter();
+
+    long enqueued = tracer.sample();
+    beginPublish();
+    try {
+      Supplier<Document> snapshot = payload.snapshot(); // the document is built on the publishing thread
+      handOff(target, () -> identify(snapshot.get()), durability, enqueued);
+    } finally {
+      endPublish();
+    }
+    return watcher().waiter();
+  }
+
+  /**
+   * Enqueues a new typed message to the publishers collection, received by
+   * {@link TypedSubscriber}s. The message is written as a native nested document
+   * by the precompiled codec of its type.
+   *
+   * @param target the target of the message.
+   * @param message the message to enqueue.
+   * @param <T> the message type.
+   *
+   * @return Returns a waiter that can be used to
+   * ensure the message being sent with thread locking
+   * before closing the client.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
+   */
+  @Nonnull @SuppressWarnings("UnusedReturnValue")
+  public <T> Waiter enqueue(@Nonnull String target, @Nonnull T message) {
+    return enqueue(target, message, durability(target));
+  }
+
+  /**
+   * Enqueues a new typed message to the publishers collection with the given durability tier.
+   *
+   * @param target the target of the message.
+   * @param message the message to enqueue.
+   * @param durability the durability tier to publish the message with.
+   * @param <T> the message type.
+   *
+   * @return Returns a waiter that can be used to
+   * ensure the message being sent with thread locking
+   * before closing the client.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
+   */
+  @Nonnull @SuppressWarnings({"UnusedReturnValue", "unchecked"})
+  public <T> Waiter enqueue(@Nonnull String target, @Nonnull T message, @Nonnull Durability durability) {
     Requisites.requireNonNull(target, "target cannot be null.");
-    Document document = payload.asDocument()
+    Requisites.requireNonNull(message, "message cannot be null.");
+    Requisites.requireNonNull(durability, "durability cannot be null.");
+    if (!admit(target))
+      return watcher().waiter();
+
+    long enqueued = tracer.sample();
+    beginPublish();
+    try {
+      MessageCodec<T> codec = MessageCodec.of((Class<T>) message.getClass());
+      handOff(target, () -> codec.encode(message), durability, enqueued);
+    } finally {
+      endPublish();
+    }
+    return watcher().waiter();
+  }
+
+  /**
+   * Checks whether any node is listening to the target, according to the presence registry.
+   *
+   * @param target the target.
+   * @return true if a node is listening to the target or the presence registry is not enabled, false otherwise.
+   * @see MongoClientBuilder#presence(long, TimeUnit, PresencePolicy)
+   */
+  public boolean isListened(@Nonnull String target) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    return presence == null || presence.isListened(target);
+  }
+
+  /**
+   * Applies the presence policy to a payload about to be enqueued.
+   *
+   * @param target the target of the payload.
+   * @return true if the payload should be published, false if it is dropped.
+   * @throws IllegalStateException if no node is listening to the target and the policy rejects it.
+   */
+  private boolean admit(String target) {
+    if (presence == null || presence.isListened(target))
+      return true;
+
+    metrics.increment(Metric.UNLISTENED);
+    switch (presence.policy()) {
+      case DROP:
+        return false;
+      case REJECT:
+        throw new IllegalStateException("No node is listening to target " + target + ".");
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Publishes a payload on the caller thread, or hands it over to the encode stage if enabled.
+   *
+   * @param target the target of the payload.
+   * @param encode builds & encodes the payload, called once on the publishing thread.
+   * @param durability the durability tier to publish the payload with.
+   * @param enqueued the time the payload was enqueued if it is traced, 0 otherwise.
+   */
+  private void handOff(String target, Supplier<Document> encode, Durability durability, long enqueued) {
+    if (encoder == null) {
+      publish(target, encode.get(), durability, enqueued);
+      return;
+    }
+
+    encoder.submit(target, () -> {
+      Document document = encode.get();
+      try {
+        publish(target, document, durability, enqueued);
+      } catch (RuntimeException e) {
+        publishFailed(document, e); // the caller has returned already
+      }
+    });
+  }
+
+  /**
+   * Stamps the document with its id, target, send time, publisher & sequence number,
+   * and publishes it through the lane of its tier.
+   *
+   * @param target the target of the document.
+   * @param document the encoded payload.
+   * @param durability the durability tier to publish the document with.
+   * @param enqueued the time the payload was enqueued if it is traced, 0 otherwise.
+   */
+  private void publish(String target, Document document, Durability durability, long enqueued) {
+    stamp(target, document, enqueued);
+    boolean handedOver = false;
+    try {
+      lanes.get(durability).publish(document);
+      handedOver = true; // traced from here on by the lane
+    } finally {
+      if (!handedOver)
+        tracer.discard(document);
+    }
+  }
+
+  /**
+   * Prepares the snapshot of a payload to be published as a new copy. The id set on the payload, if any,
+   * is kept, otherwise a fresh id is assigned to the copy. The document id of a received payload is dropped.
+   *
+   * @param snapshot the snapshot of the payload.
+   * @return the snapshot.
+   */
+  private static Document identify(Document snapshot) {
+    snapshot.remove("_id");
+    if (!(snapshot.get(Payload.ID) instanceof ObjectId))
+      snapshot.put(Payload.ID, new ObjectId()); // fresh per send, kept by the retries of the copy
+    return snapshot;
+  }
+
+  /**
+   * Stamps the document with its id, unless it has one, and its target, send time, publisher &
+   * sequence number, and starts its trace if it is sampled. Used by every publishing path,
+   * including the release of scheduled payloads.
+   *
+   * @param target the target of the document.
+   * @param document the encoded payload.
+   * @param enqueued the time the payload was enqueued if it is traced, 0 otherwise.
+   * @return the stamped document.
+   */
+  Document stamp(String target, Document document, long enqueued) {
+    if (!document.containsKey(Payload.ID))
+      document.append(Payload.ID, new ObjectId());
+    if (!document.containsKey("_id"))
+      document.append("_id", new ObjectId()); // a retried insert of the copy collides instead of doubling
+    String route = Routing.route(document); // addressed payloads are sequenced per destination
+    document
       .append("payload:target", target)
-      .append("payload:send", new Date());
+      .append("payload:send", new Date())
+      .append(Sequencer.PUBLISHER, route != null ? publisherId + route : publisherId)
+      .append(Sequencer.SEQUENCE, sequences.computeIfAbsent(route != null ? route + '\u0000' + target : target,
+        t -> new AtomicLong()).incrementAndGet());
+    if (enqueued != 0L)
+      tracer.encoded(enqueued, target, document);
+    return document;
+  }
+
+  /**
+   * Enqueues a new payload addressed to a single node, received by the subscriber of the target on
+   * that node only. Other nodes never receive the payload, their change streams filter it out.
+   *
+   * @param nodeId the id of the receiving node, see {@link MongoClientBuilder#nodeId(String)}.
+   * @param target the target of the payload.
+   * @param payload the payload to enqueue.
+   *
+   * @return Returns a waiter that can be used to
+   * ensure the payload being sent with thread locking
+   * before closing the client.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
+   */
+  @Nonnull @SuppressWarnings("UnusedReturnValue")
+  public Waiter enqueueToNode(@Nonnull String nodeId, @Nonnull String target, Payload payload) {
+    Requisites.requireNonNull(nodeId, "nodeId cannot be null.");
+    Requisites.requireNonNull(target, "target cannot be null.");
+    return enqueueRouted(target, payload, document -> document.append(Routing.NODE, nodeId));
+  }
+
+  /**
+   * Enqueues a new payload to the member of a partition group owning the key, received by the
+   * subscriber of the target on that member only. Payloads of the same key always reach the same
+   * member, until a member joins or leaves the group.
+   *
+   * <pre>{@code
+   * client.enqueuePartitioned("world", entityId, "entity-update", payload);
+   * }</pre>
+   *
+   * @param group the partition group, see {@link MongoClientBuilder#partitionGroup(String, long, TimeUnit)}.
+   * @param key the key, hashed into one of the partitions of the group.
+   * @param target the target of the payload.
+   * @param payload the payload to enqueue.
+   *
+   * @return Returns a waiter that can be used to
+   * ensure the payload being sent with thread locking
+   * before closing the client.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
+   */
+  @Nonnull @SuppressWarnings("UnusedReturnValue")
+  public Waiter enqueuePartitioned(@Nonnull String group, @Nonnull String key, @Nonnull String target, Payload payload) {
+    Requisites.requireNonNull(group, "group cannot be null.");
+    Requisites.requireNonNull(key, "key cannot be null.");
+    Requisites.requireNonNull(target, "target cannot be null.");
+    int partition = Routing.partition(key, routing.partitionCount());
+    return enqueueRouted(target, payload, document -> document
+      .append(Routing.GROUP, group)
+      .append(Routing.PARTITION, partition));
+  }
+
+  /**
+   * Enqueues a payload, addressed by the given stamp. The presence policy applies like to
+   * {@link #enqueue(String, Payload)}, to the target as a whole rather than to the addressed node.
+   *
+   * @param target the target of the payload.
+   * @param payload the payload to enqueue.
+   * @param address stamps the address onto the encoded payload.
+   * @return the waiter of the watcher.
+   */
+  private Waiter enqueueRouted(String target, Payload payload, Function<Document, Document> address) {
+    if (!admit(target))
+      return watcher().waiter();
 
-    publishers.insertOne(document);
+    long enqueued = tracer.sample();
+    beginPublish();
+    try {
+      Supplier<Document> snapshot = payload.snapshot();
+      handOff(target, () -> identify(address.apply(snapshot.get())), durability(target), enqueued);
+    } finally {
+      endPublish();
+    }
     return watcher().waiter();
   }
 
+  /**
+   * Checks whether this node currently owns the partition of the key, within its partition group.
+   *
+   * @param key the key.
+   * @return true if this node owns the key, false otherwise or if it is not a member of a group.
+   */
+  public boolean owns(@Nonnull String key) {
+    Requisites.requireNonNull(key, "key cannot be null.");
+    return routing.owned().contains(Routing.partition(key, routing.partitionCount()));
+  }
+
+  /**
+   * Gets the partitions currently owned by this node within its partition group.
+   *
+   * @return an immutable set of the owned partitions, empty if this node is not a member of a group.
+   */
+  @Nonnull
+  public Set<Integer> partitions() {
+    return routing.owned();
+  }
+
+  /**
+   * Schedules a payload to be delivered to the target at the given time. The payload is stored in
+   * the database until then, and released by the node elected among those with
+   * {@link MongoClientBuilder#releaseScheduled()} enabled.
+   *
+   * <p>The presence policy does not apply, since a node may listen to the target by the time the
+   * payload is due.
+   *
+   * @param target the target of the payload.
+   * @param payload the payload to deliver.
+   * @param deliverAt the time at which to deliver the payload, payloads in the past are delivered right away.
+   * @return the id of the payload, which can be used to cancel it.
+   * @throws IllegalStateException if the client is closing.
+   */
+  @Nonnull
+  public ObjectId enqueueAt(@Nonnull String target, Payload payload, @Nonnull Instant deliverAt) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    Requisites.requireNonNull(deliverAt, "deliverAt cannot be null.");
+    beginPublish();
+    try {
+      ObjectId id = payload.getMessageId() != null ? payload.getMessageId() : new ObjectId();
+      Durability tier = durability(target);
+      MongoCollection<Document> scheduled = tier.writeConcern() == null
+        ? scheduler.scheduled()
+        : scheduler.scheduled().withWriteConcern(tier.writeConcern());
+      scheduler.schedule(payload.asDocument()
+        .append(Payload.ID, id)
+        .append("_id", id)
+        .append("payload:target", target)
+        .append(Scheduler.DURABILITY, tier.name())
+        .append(Scheduler.DELIVER_AT, Date.from(deliverAt)), scheduled);
+      return id;
+    } finally {
+      endPublish();
+    }
+  }
+
+  /**
+   * Schedules a payload to be delivered to the target after the given delay.
+   *
+   * @param target the target of the payload.
+   * @param payload the payload to deliver.
+   * @param delay the delay before delivering the payload.
+   * @param unit the unit of the delay.
+   * @return the id of the payload, which can be used to cancel it.
+   * @throws IllegalStateException if the client is closing.
+   * @see #enqueueAt(String, Payload, Instant)
+   */
+  @Nonnull
+  public ObjectId enqueueAfter(@Nonnull String target, Payload payload, long delay, @Nonnull TimeUnit unit) {
+    return enqueueAt(target, payload, Instant.now().plusMillis(unit.toMillis(delay)));
+  }
+
+  /**
+   * Cancels a scheduled payload, unless it was delivered already.
+   *
+   * @param id the id of the payload, as returned when it was scheduled.
+   * @return true if the payload was cancelled, false if it was delivered or never scheduled.
+   */
+  public boolean cancelScheduled(@Nonnull ObjectId id) {
+    return scheduler.cancel(id);
+  }
+
+  /**
+   * Gets a demand-driven view of the payloads of the target, fetching at most 64 payloads per batch.
+   *
+   * @param target the target.
+   * @return the publisher of the target.
+   * @see #publisher(String, int)
+   */
+  @Nonnull
+  public PayloadPublisher publisher(@Nonnull String target) {
+    return publisher(target, DEFAULT_PREFETCH);
+  }
+
+  /**
+   * Gets a demand-driven view of the payloads of the target. Its subscribers receive payloads
+   * only as fast as they request them, and no more than one batch is fetched ahead of their demand.
+   *
+   * <pre>{@code
+   * client.publisher("telemetry", 256).subscribe(subscriber);
+   * }</pre>
+   *
+   * @param target the target.
+   * @param prefetch the maximum amount of payloads fetched per batch.
+   * @return the publisher of the target.
+   */
+  @Nonnull
+  public PayloadPublisher publisher(@Nonnull String target, int prefetch) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    return new PayloadPublisher(this, target, null, prefetch);
+  }
+
+  /**
+   * Gets a demand-driven view of the payloads of every target matching the pattern, fetching
+   * at most 64 payloads per batch. The pattern is matched by the server.
+   *
+   * @param pattern the pattern of the targets.
+   * @return the publisher of the matching targets.
+   * @see #publisher(String, int)
+   */
+  @Nonnull
+  public PayloadPublisher publisherMatching(@Nonnull Pattern pattern) {
+    return publisherMatching(pattern, DEFAULT_PREFETCH);
+  }
+
+  /**
+   * Gets a demand-driven view of the payloads of every target matching the pattern.
+   * The pattern is matched by the server.
+   *
+   * @param pattern the pattern of the targets.
+   * @param prefetch the maximum amount of payloads fetched per batch.
+   * @return the publisher of the matching targets.
+   * @see #publisher(String, int)
+   */
+  @Nonnull
+  public PayloadPublisher publisherMatching(@Nonnull Pattern pattern, int prefetch) {
+    Requisites.requireNonNull(pattern, "pattern cannot be null.");
+    return new PayloadPublisher(this, null, pattern, prefetch);
+  }
+
+  /**
+   * Creates a subscription of a {@link PayloadPublisher}, completed when this client is closed.
+   *
+   * @param publisher the publisher selecting the changes of the subscription.
+   * @param subscriber the subscriber receiving the payloads.
+   * @return the subscription, which is not started yet.
+   * @throws IllegalStateException if the client is closing.
+   */
+  CursorSubscription subscribe(PayloadPublisher publisher, FlowSubscriber subscriber) {
+    if (closing)
+      throw new IllegalStateException("Cannot subscribe while the client is closing.");
+
+    CursorSubscription subscription = new CursorSubscription(this, publisher, subscriber, subscriptions::remove);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * Gets the active subscriptions of the {@link PayloadPublisher}s of this client.
+   *
+   * @return the active subscriptions.
+   */
+  Set<CursorSubscription> subscriptions() {
+    return Collections.unmodifiableSet(subscriptions);
+  }
+
+  /**
+   * Replays the payloads sent to the target since the given time, then keeps delivering the
+   * live payloads of the target to the handler, which becomes the subscriber of the target.
+   *
+   * <p>The history is read on the calling thread, in batches of 1000 payloads, and decoded
+   * like live payloads. Live payloads arriving meanwhile are held back until the history is
+   * exhausted, so the handler receives every payload exactly once, without a gap. At most
+   * {@value Replay#BUFFER_CAPACITY} live payloads are held back, further ones are read from the
+   * history again instead.
+   *
+   * <p>The target must not have a subscriber on this node yet, the handler never replaces one.
+   *
+   * <pre>{@code
+   * client.replay("match-42", Instant.now().minus(5, ChronoUnit.MINUTES),
+   *   payload -> state.apply(payload));
+   * }</pre>
+   *
+   * <strong>NOTE:</strong> only payloads which have not been flushed yet can be replayed.
+   *
+   * @param target the target to replay.
+   * @param since the send time of the oldest payload to replay.
+   * @param handler the subscriber receiving the history & live payloads.
+   * @return the amount of replayed payloads.
+   * @throws IllegalStateException if the target already has a subscriber on this node.
+   */
+  public long replay(@Nonnull String target, @Nonnull Instant since, @Nonnull Subscriber handler) {
+    return replay(target, since, REPLAY_BATCH_SIZE, handler);
+  }
+
+  /**
+   * Replays the payloads sent to the target since the given time, then keeps delivering the
+   * live payloads of the target to the handler.
+   *
+   * @param target the target to replay.
+   * @param since the send time of the oldest payload to replay.
+   * @param batchSize the amount of payloads fetched per batch.
+   * @param handler the subscriber receiving the history & live payloads.
+   * @return the amount of replayed payloads.
+   * @throws IllegalStateException if the target already has a subscriber on this node.
+   * @see #replay(String, Instant, Subscriber)
+   */
+  public long replay(@Nonnull String target, @Nonnull Instant since, int batchSize, @Nonnull Subscriber handler) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    Requisites.requireNonNull(since, "since cannot be null.");
+    Requisites.requireNonNull(handler, "handler cannot be null.");
+    if (!replayIndexed) {
+      publishers.createIndex(Indexes.ascending("payload:target", "payload:send"));
+      replayIndexed = true;
+    }
+
+    /*
+     * subscribe before reading the history, so that no live payload is missed.
+     */
+    Replay replay = new Replay(target, handler);
+    if (!subscribers.listenIfAbsent(target, replay))
+      throw new IllegalStateException("Target " + target + " already has a subscriber, remove it before replaying.");
+    try {
+      return replay.run(publishers, subscribers, Date.from(since), batchSize, routing.filter(""));
+    } catch (RuntimeException e) {
+      subscribers.removeListener(target);
+      throw e;
+    }
+  }
+
+  /**
+   * Enqueues a new job to the work queue, which is processed by exactly
+   * one of the nodes listening to the target in {@link #workQueue()}.
+   *
+   * <p>The presence policy does not apply, since a job waits in the work queue until a worker claims it,
+   * and workers are not part of the presence registry.
+   *
+   * @param target the target of the job.
+   * @param payload the payload of the job.
+   * @throws IllegalStateException if the client is closing.
+   */
+  public void enqueueJob(@Nonnull String target, Payload payload) {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    beginPublish();
+    try {
+      Durability tier = durability(target);
+      MongoCollection<Document> jobs = tier.writeConcern() == null
+        ? workQueue.jobs()
+        : workQueue.jobs().withWriteConcern(tier.writeConcern());
+      workQueue.insert(payload.asDocument()
+        .append("payload:target", target)
+        .append("payload:send", new Date()), jobs);
+    } finally {
+      endPublish();
+    }
+  }
+
+  /**
+   * Streams a blob of any size to the target, received by the {@link StreamSubscriber}s in {@link #streams()}.
+   *
+   * <p>A descriptor payload holding the stream id is published first, so subscribers start reading
+   * while the blob is written in chunks. This call blocks until the whole blob has been written.
+   *
+   * @param target the target of the stream.
+   * @param in the input stream to read the blob from, which is not closed.
+   * @param descriptor the descriptor payload, e.g. holding the name of the blob.
+   * @return the id of the stream, which is never written if the stream is dropped by the presence policy.
+   * @throws IOException if reading the blob failed, the stream is then terminated with the error.
+   * @throws IllegalStateException if the client is closing, or no node is listening to the target under {@link PresencePolicy#REJECT}.
+   */
+  @Nonnull
+  public ObjectId enqueueStream(@Nonnull String target, @Nonnull InputStream in, Payload descriptor) throws IOException {
+    Requisites.requireNonNull(target, "target cannot be null.");
+    Requisites.requireNonNull(in, "input stream cannot be null.");
+    ObjectId stream = new ObjectId();
+    if (!admit(target))
+      return stream; // the blob is not read
+
+    beginPublish();
+    try {
+      publish(target, descriptor.asDocument().append(Streams.FIELD, stream), durability(target), 0L);
+      streams.write(stream, in);
+      return stream;
+    } finally {
+      endPublish();
+    }
+  }
+
   /**
    * Internal procedure to build the mongo client settings.
    *
    * @param b the builder to construct the client.
+   * @param pool the connection pool settings of the client, or null for the driver defaults.
    * @return the mongo client settings.
    */
-  private MongoClientSettings doBuildProcedure(MongoClientBuilder b) {
+  private MongoClientSettings doBuildProcedure(MongoClientBuilder b, PoolSettings pool) {
     MongoClientSettings.Builder builder = MongoClientSettings.builder();
     if (b.uri != null) {
       builder.applyConnectionString(new ConnectionString(b.uri));
@@ -221,25 +1149,130 @@ public final class MongoPubSubClient implements Closeable {
     if (b.password != null) {
       builder.credential(MongoCredential.createCredential(b.username, b.database, b.password.toCharArray()));
     }
+    if (pool != null) {
+      builder.applyToConnectionPoolSettings(pool::apply);
+    }
     return builder.build();
   }
 
   /**
-   * Closes the client.
+   * Registers an in-flight publish, rejecting it if the client is closing.
+   *
+   * @throws IllegalStateException if the client is closing.
+   */
+  private void beginPublish() {
+    inFlight.incrementAndGet();
+    if (closing) {
+      endPublish();
+      throw new IllegalStateException("Cannot enqueue payloads while the client is closing.");
+    }
+  }
+
+  /**
+   * Completes an in-flight publish, notifying the closing thread once none are left.
+   */
+  private void endPublish() {
+    if (inFlight.decrementAndGet() == 0 && closing) {
+      synchronized (inFlight) {
+        inFlight.notifyAll(); // notify the closing thread
+      }
+    }
+  }
+
+  /**
+   * Waits for the publishes which are still in-flight to complete.
+   *
+   * @param deadline the {@link System#nanoTime()} at which to stop waiting.
+   * @return true if all publishes completed in time, false otherwise.
+   */
+  private boolean awaitPublishes(long deadline) {
+    synchronized (inFlight) {
+      long remaining;
+      while (inFlight.get() > 0 && (remaining = deadline - System.nanoTime()) > 0L) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(inFlight, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return inFlight.get() == 0;
+    }
+  }
+
+  /**
+   * Closes the client gracefully.
+   *
+   * <p>Stops accepting new payloads, waits for in-flight & buffered publishes, drains the
+   * watcher and checkpoints its resume position before closing the connection.
+   * The publishers collection is only dropped if {@link MongoClientBuilder#dropOnClose()} was set.
    */
   @Override
   public void close() {
     synchronized (this) {
+      if (closing)
+        return;
+
+      closing = true;
+      long deadline = System.nanoTime() + shutdownTimeout;
+      if (!awaitPublishes(deadline))
+        System.err.println("Closing client with " + inFlight.get() + " publishes still in-flight.");
+
+      if (encoder != null && !encoder.flush(deadline))
+        System.err.println("Closing client with " + encoder.pending() + " payloads left to encode.");
+
+      for (PublishLane<?> lane : lanes.values()) {
+        if (!lane.flush(deadline))
+          System.err.println("Closing client with " + lane.pending() + " buffered publishes.");
+      }
+
+      for (CursorSubscription subscription : subscriptions) {
+        subscription.complete(TimeUnit.NANOSECONDS.toMillis(Math.max(0L, deadline - System.nanoTime())));
+      }
+
+      if (presence != null) {
+        presence.close(); // other nodes stop publishing to the targets only we listen to
+      }
+      routing.close(); // hand our partitions over, at the position of the rebalance in the stream
+
       /*
-       * drop the collection to prevent storing payloads.
-       * especially if the client doesn't have a flush procedure.
+       * dispatch what is still pending in the stream, then store where we stopped.
        */
-      publishers.drop();
+      if (!watcher.drain(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+        System.err.println("Watcher did not drain within the shutdown timeout.");
+
+      dispatcher.close(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      workQueue.close(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      streams.close(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      scheduler.close(); // hand the lease over to the other nodes
+
+      try {
+        checkpoints.save(watcher.resumeToken());
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+
+      if (dropOnClose) {
+        publishers.drop();
+      }
+
       /*
        * finally, close the watcher & client.
        */
       watcher.close();
-      client.close();
+      if (encoder != null) {
+        encoder.close();
+      }
+      lanes.values().forEach(PublishLane::close);
+      if (publishClient != null) {
+        publishClient.close();
+      }
+      if (watchClient != null) {
+        watchClient.close();
+      }
+      if (ownsClient) {
+        client.close(); // shared clients are closed by their owner
+      }
     }
   }
 }
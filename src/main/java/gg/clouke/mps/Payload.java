@@ -2,19 +2,45 @@ package gg.clouke.mps;
 
 import com.google.gson.reflect.TypeToken;
 import gg.acai.acava.collect.pairs.Pairs;
+import gg.clouke.mps.codec.BsonBridge;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 import java.lang.reflect.Type;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Represents a payload object that can be used to send data in a message.
  *
+ * <p>When {@link MongoClientBuilder#pooledPayloads(int)} is enabled, the payloads delivered to
+ * subscribers are recycled once closed. A pooled payload must not be used after {@link #close()},
+ * and the map returned by {@link #asMap()} is only valid until then.
+ *
  * @author Clouke
  * @since 24.02.2023 06:15
  * © mongo-pubsub - All Rights Reserved
  */
 public final class Payload extends AbstractPayload {
 
+  /**
+   * The field holding the id of a payload.
+   */
+  public static final String ID = "payload:id";
+
+  /**
+   * The field holding the expiry of a payload.
+   */
+  public static final String EXPIRE_AT = "payload:expireAt";
+
+  private final PayloadPool pool;
+  private final AtomicBoolean acquired;
+  private Map<String, Object> view;
+  private Object leak;
+
   /**
    * Creates a new payload object from a JSON string.
    *
@@ -51,6 +77,8 @@ public final class Payload extends AbstractPayload {
    */
   public Payload(String json) {
     super(json);
+    this.pool = null;
+    this.acquired = null;
   }
 
   /**
@@ -60,6 +88,8 @@ public final class Payload extends AbstractPayload {
    */
   public Payload(Document document) {
     super(document);
+    this.pool = null;
+    this.acquired = null;
   }
 
   /**
@@ -67,6 +97,38 @@ public final class Payload extends AbstractPayload {
    */
   public Payload() {
     super();
+    this.pool = null;
+    this.acquired = null;
+  }
+
+  /**
+   * Creates a new empty payload recycled through the given pool.
+   *
+   * @param pool the pool owning the payload.
+   */
+  Payload(PayloadPool pool) {
+    super(new HashMap<>(), new HashMap<>());
+    this.pool = pool;
+    this.acquired = new AtomicBoolean();
+  }
+
+  /**
+   * Marks a pooled payload as acquired.
+   *
+   * @param leak the leak tracker of the payload, or null if leak detection is disabled.
+   */
+  void acquired(Object leak) {
+    this.leak = leak;
+    acquired.set(true);
+  }
+
+  /**
+   * Checks whether this payload is recycled through a pool once closed.
+   *
+   * @return true if the payload is pooled, false otherwise.
+   */
+  public boolean isPooled() {
+    return pool != null;
   }
 
   /**
@@ -131,6 +193,105 @@ public final class Payload extends AbstractPayload {
     return withSerializableParameter(key, value, typeToken.getType());
   }
 
+  /**
+   * Adds a new nested parameter to the payload object. Unlike serializable parameters,
+   * the value is stored as a native BSON document or array instead of a Json string,
+   * making it smaller on the wire and allowing it to be filtered server-side.
+   *
+   * @param key the parameter key.
+   * @param value the parameter value.
+   * @return the updated payload object.
+   */
+  public Payload withNestedParameter(String key, Object value) {
+    return withNestedParameter(key, value, value.getClass());
+  }
+
+  /**
+   * Adds a new nested parameter to the payload object.
+   *
+   * @param key the parameter key.
+   * @param value the parameter value.
+   * @param type the type of the parameter value.
+   * @return the updated payload object.
+   */
+  public Payload withNestedParameter(String key, Object value, Type type) {
+    nested.put(key, BsonBridge.toBson(GSON.toJsonTree(value, type)));
+    return this;
+  }
+
+  /**
+   * Adds a new nested parameter to the payload object.
+   *
+   * @param key the parameter key.
+   * @param value the parameter value.
+   * @param typeToken the type of the parameter value.
+   * @return the updated payload object.
+   */
+  public Payload withNestedParameter(String key, Object value, TypeToken<?> typeToken) {
+    return withNestedParameter(key, value, typeToken.getType());
+  }
+
+  /**
+   * Sets the id of this payload, kept by every enqueue of it. Set an id before retrying an enqueue
+   * which timed out or failed ambiguously, so subscribers with deduplication enabled receive the
+   * payload once on each target, however often it was enqueued.
+   *
+   * @param id the id of the payload, e.g. derived from an idempotency key of the caller.
+   * @return the updated payload object.
+   */
+  public Payload withMessageId(ObjectId id) {
+    nested.put(ID, id);
+    return this;
+  }
+
+  /**
+   * Gets the id of this payload, as set through {@link #withMessageId(ObjectId)} or received by a
+   * subscriber. Enqueuing a payload without an id assigns a fresh id to the published copy and leaves
+   * the payload itself untouched, so enqueuing it again, to another target or as a resend, is never
+   * dropped as a duplicate. The retries of the client itself reuse the id of a copy.
+   *
+   * @return the id of the payload, or null if it has none.
+   */
+  public ObjectId getMessageId() {
+    Object id = nested.get(ID);
+    return id instanceof ObjectId ? (ObjectId) id : null;
+  }
+
+  /**
+   * Sets when the payload is flushed from the publishers collection. Payloads are flushed at
+   * their expiry or after the flush time of the client, whichever comes first, so short-lived
+   * payloads can expire earlier than the rest of the collection.
+   *
+   * @param expireAt the time at which the payload expires.
+   * @return the updated payload object.
+   */
+  public Payload expireAt(Date expireAt) {
+    nested.put(EXPIRE_AT, expireAt);
+    return this;
+  }
+
+  /**
+   * Sets the payload to expire after the given time, counted from now.
+   *
+   * @param time the time until the payload expires.
+   * @param unit the unit of the time.
+   * @return the updated payload object.
+   * @see #expireAt(Date)
+   */
+  public Payload expireAfter(long time, TimeUnit unit) {
+    return expireAt(new Date(System.currentTimeMillis() + unit.toMillis(time)));
+  }
+
+  /**
+   * Gets the native BSON value of a nested parameter.
+   *
+   * @param key the parameter key.
+   * @return the BSON value, e.g. a {@link Document} or a {@link java.util.List}, or null if absent.
+   */
+  public Object getNestedValue(String key) {
+    return nested.get(key);
+  }
+
   /**
    * Gets the simple string value of a parameter.
    *
@@ -150,6 +311,8 @@ public final class Payload extends AbstractPayload {
    * @return the deserialized value of the parameter.
    */
   public <V> V getValueAs(String key, Class<V> clazz) {
+    if (nested.containsKey(key))
+      return GSON.fromJson(BsonBridge.toJson(nested.get(key)), clazz);
     return GSON.fromJson(parameters.get(key), clazz);
   }
 
@@ -162,7 +325,53 @@ public final class Payload extends AbstractPayload {
    * @return the deserialized value of the parameter.
    */
   public <V> V getValueAs(String key, TypeToken<V> typeToken) {
+    if (nested.containsKey(key))
+      return GSON.fromJson(BsonBridge.toJson(nested.get(key)), typeToken.getType());
     return GSON.fromJson(parameters.get(key), typeToken.getType());
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Pooled payloads reuse the same map for each call, which is only valid until the payload is closed.
+   */
+  @Override
+  public Map<String, Object> asMap() {
+    if (pool == null)
+      return super.asMap();
+
+    synchronized (parameters) {
+      if (view == null)
+        view = new HashMap<>();
+      view.clear();
+      view.putAll(parameters);
+      view.putAll(nested);
+      return view;
+    }
+  }
+
+  /**
+   * Clears the payload, and returns it to its pool if it is pooled.
+   * Closing a pooled payload more than once has no further effect.
+   */
+  @Override
+  public void close() {
+    if (pool == null) {
+      super.close();
+      return;
+    }
+
+    if (!acquired.compareAndSet(true, false))
+      return;
+
+    super.close();
+    synchronized (parameters) {
+      if (view != null)
+        view.clear();
+    }
+    Object leak = this.leak;
+    this.leak = null;
+    pool.release(this, leak);
+  }
+
 }
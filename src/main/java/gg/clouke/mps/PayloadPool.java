@@ -0,0 +1,167 @@
+package gg.clouke.mps;
+
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded pool recycling the payloads delivered to subscribers, along with their backing maps.
+ *
+ * <p>The pool is split in stripes, and each thread acquires & releases payloads through the stripe
+ * picked by its thread id. The dispatching threads of a client are few and long-lived, so in practice
+ * each of them keeps to its own stripe and never contends with another.
+ *
+ * <p>A payload is returned to the pool when it is closed. Payloads which are garbage collected
+ * without being closed are simply lost to the pool, run with {@code -Dmps.leakDetection=true}
+ * to report where such payloads were acquired.
+ *
+ * @author Clouke
+ * @since 19.10.2026 19:02
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class PayloadPool {
+
+  private static final boolean LEAK_DETECTION = Boolean.getBoolean("mps.leakDetection");
+
+  private final ArrayDeque<Payload>[] stripes;
+  private final int mask;
+  private final int capacity;
+  private final Metrics metrics;
+  private final LeakDetector detector;
+
+  /**
+   * Constructs a new payload pool.
+   *
+   * @param capacity the maximum amount of idle payloads kept per stripe.
+   * @param metrics the metrics to count allocations & leaks to.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  PayloadPool(int capacity, Metrics metrics) {
+    int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+    this.stripes = new ArrayDeque[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new ArrayDeque<>(capacity);
+    }
+    this.mask = stripes - 1;
+    this.capacity = capacity;
+    this.metrics = metrics;
+    this.detector = LEAK_DETECTION ? new LeakDetector(metrics) : null;
+  }
+
+  /**
+   * Acquires a payload from the pool and reads the document into it.
+   *
+   * @param document the document to read.
+   * @return the pooled payload, to be closed once it is no longer used.
+   */
+  Payload acquire(Document document) {
+    ArrayDeque<Payload> stripe = stripe();
+    Payload payload;
+    synchronized (stripe) {
+      payload = stripe.pollFirst();
+    }
+
+    if (payload == null) {
+      payload = new Payload(this);
+      metrics.increment(Metric.PAYLOADS_ALLOCATED);
+    }
+
+    payload.acquired(detector != null ? detector.track(payload) : null);
+    payload.read(document);
+    return payload;
+  }
+
+  /**
+   * Returns a closed payload to the pool. Payloads exceeding the capacity of the stripe are dropped.
+   *
+   * @param payload the closed payload.
+   * @param leak the leak tracker of the payload, or null if leak detection is disabled.
+   */
+  void release(Payload payload, Object leak) {
+    if (detector != null)
+      detector.untrack(leak);
+
+    ArrayDeque<Payload> stripe = stripe();
+    synchronized (stripe) {
+      if (stripe.size() < capacity)
+        stripe.offerFirst(payload);
+    }
+  }
+
+  /**
+   * Gets the amount of idle payloads held by the pool.
+   *
+   * @return the amount of idle payloads.
+   */
+  int idle() {
+    int idle = 0;
+    for (ArrayDeque<Payload> stripe : stripes) {
+      synchronized (stripe) {
+        idle += stripe.size();
+      }
+    }
+    return idle;
+  }
+
+  private ArrayDeque<Payload> stripe() {
+    return stripes[(int) Thread.currentThread().getId() & mask];
+  }
+
+  /**
+   * Tracks acquired payloads through weak references, and reports those which were
+   * garbage collected before being closed.
+   */
+  private static final class LeakDetector {
+    private final ReferenceQueue<Payload> queue = new ReferenceQueue<>();
+    private final Set<Leak> tracked = ConcurrentHashMap.newKeySet();
+    private final Metrics metrics;
+
+    private LeakDetector(Metrics metrics) {
+      this.metrics = metrics;
+    }
+
+    private Leak track(Payload payload) {
+      poll();
+      Leak leak = new Leak(payload, queue);
+      tracked.add(leak);
+      return leak;
+    }
+
+    private void untrack(Object leak) {
+      if (leak instanceof Leak) {
+        tracked.remove(leak);
+        ((Leak) leak).clear();
+      }
+    }
+
+    private void poll() {
+      Leak leak;
+      while ((leak = (Leak) queue.poll()) != null) {
+        if (tracked.remove(leak)) {
+          metrics.increment(Metric.PAYLOAD_LEAKS);
+          System.err.println("[MongoPubSub] A pooled payload was garbage collected without being closed.");
+          leak.acquired.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * A weak reference to an acquired payload, remembering where it was acquired.
+   */
+  private static final class Leak extends WeakReference<Payload> {
+    private final Throwable acquired;
+
+    private Leak(Payload payload, ReferenceQueue<Payload> queue) {
+      super(payload, queue);
+      this.acquired = new Throwable("Payload acquired by " + Thread.currentThread().getName());
+    }
+  }
+
+}
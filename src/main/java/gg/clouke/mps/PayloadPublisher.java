@@ -0,0 +1,112 @@
+package gg.clouke.mps;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import gg.acai.acava.Requisites;
+import org.bson.conversions.Bson;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A demand-driven view of the payloads of a target, or of every target matching a pattern,
+ * obtained through {@link MongoPubSubClient#publisher(String)} or
+ * {@link MongoPubSubClient#publisherMatching(java.util.regex.Pattern)}.
+ *
+ * <p>Unlike a {@link Subscriber}, which is pushed every payload by the watcher, a {@link FlowSubscriber}
+ * receives payloads only as fast as it requests them. Each subscription reads its own change stream,
+ * which is not polled while there is no demand, so a slow subscriber holds payloads back on the
+ * server instead of buffering them in the JVM. Mirrors the {@code org.reactivestreams.Publisher} contract.
+ *
+ * <p>Payloads delivered through a publisher bypass the subscribers, dispatch lanes & redelivery of the watcher.
+ * Payloads addressed to another node are left out, while partitioned payloads are received whichever node owns them.
+ *
+ * @author Clouke
+ * @since 20.10.2026 00:14
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class PayloadPublisher {
+
+  private final MongoPubSubClient client;
+  private final String target;
+  private final Pattern pattern;
+  private final List<Bson> pipeline;
+  private final int prefetch;
+
+  /**
+   * Constructs a new publisher, of either a target or the targets matching a pattern.
+   *
+   * @param client the client owning the publisher.
+   * @param target the target of the publisher, or null if it selects the targets matching the pattern.
+   * @param pattern the pattern of the targets, matched by the server, if no target is given.
+   * @param prefetch the maximum amount of payloads fetched per batch.
+   */
+  PayloadPublisher(MongoPubSubClient client, @Nullable String target, @Nullable Pattern pattern, int prefetch) {
+    this.client = client;
+    this.target = target;
+    this.pattern = pattern;
+    Bson filter = target != null
+      ? Filters.eq("fullDocument.payload:target", target)
+      : Filters.regex("fullDocument.payload:target", pattern);
+    this.pipeline = Collections.singletonList(Aggregates.match(Filters.and(
+      Filters.eq("operationType", "insert"), filter, Filters.or(
+        Filters.exists("fullDocument." + Routing.NODE, false),
+        Filters.eq("fullDocument." + Routing.NODE, client.nodeId())))));
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * Gets the target of this publisher.
+   *
+   * @return the target, or null if the publisher selects the targets matching its pattern.
+   */
+  @Nullable
+  String target() {
+    return target;
+  }
+
+  /**
+   * Gets the pattern of the targets of this publisher.
+   *
+   * @return the pattern, or null if the publisher selects a single target.
+   */
+  @Nullable
+  Pattern pattern() {
+    return pattern;
+  }
+
+  /**
+   * Gets the pipeline selecting the changes of this publisher.
+   *
+   * @return the pipeline.
+   */
+  List<Bson> pipeline() {
+    return pipeline;
+  }
+
+  /**
+   * Gets the maximum amount of payloads fetched per batch.
+   *
+   * @return the prefetch.
+   */
+  int prefetch() {
+    return prefetch;
+  }
+
+  /**
+   * Subscribes a subscriber, which receives the payloads published from now on, as it requests them.
+   * Each call starts a new, independent subscription.
+   *
+   * @param subscriber the subscriber.
+   * @throws IllegalStateException if the client is closing.
+   */
+  public void subscribe(FlowSubscriber subscriber) {
+    Requisites.requireNonNull(subscriber, "subscriber cannot be null.");
+    CursorSubscription subscription = client.subscribe(this, subscriber);
+    subscriber.onSubscribe(subscription);
+    subscription.start();
+  }
+
+}
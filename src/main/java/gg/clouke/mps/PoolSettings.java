@@ -0,0 +1,55 @@
+package gg.clouke.mps;
+
+import com.mongodb.connection.ConnectionPoolSettings;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connection pool settings of one of the mongo clients of a {@link MongoPubSubClient},
+ * configured through {@link MongoClientBuilder#connectionPool(int, int, long, TimeUnit)},
+ * {@link MongoClientBuilder#publishPool(int, int, long, TimeUnit)} and
+ * {@link MongoClientBuilder#watchPool(int, int, long, TimeUnit)}.
+ *
+ * @author Clouke
+ * @since 19.10.2026 23:31
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class PoolSettings {
+
+  private final int maxSize;
+  private final int minSize;
+  private final long maxWaitTime;
+
+  /**
+   * Constructs new pool settings.
+   *
+   * @param maxSize the maximum amount of connections of the pool.
+   * @param minSize the amount of connections kept open while idle.
+   * @param maxWaitTime the maximum time in milliseconds to wait for a connection, before failing the operation.
+   */
+  PoolSettings(int maxSize, int minSize, long maxWaitTime) {
+    if (maxSize < 1 || minSize < 0 || minSize > maxSize)
+      throw new IllegalStateException("Invalid pool size, expected 0 <= minSize <= maxSize and maxSize >= 1.");
+    this.maxSize = maxSize;
+    this.minSize = minSize;
+    this.maxWaitTime = maxWaitTime;
+  }
+
+  /**
+   * Applies these settings to the pool settings of a mongo client.
+   *
+   * @param builder the pool settings builder of the mongo client.
+   */
+  void apply(ConnectionPoolSettings.Builder builder) {
+    builder
+      .maxSize(maxSize)
+      .minSize(minSize)
+      .maxWaitTime(maxWaitTime, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "PoolSettings{maxSize=" + maxSize + ", minSize=" + minSize + ", maxWaitTime=" + maxWaitTime + "ms}";
+  }
+
+}
@@ -0,0 +1,358 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import gg.acai.acava.io.Closeable;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Registry of the targets each node is listening to, configured through
+ * {@link MongoClientBuilder#presence(long, TimeUnit, PresencePolicy)}.
+ *
+ * <p>Each node heartbeats the identifiers of its subscribers, and the targets & patterns of its
+ * {@link PayloadPublisher} subscriptions, to a document of its own in the presence collection. A
+ * changed registration is written within 100 milliseconds, otherwise the document is rewritten once
+ * per heartbeat. Each document is valid for three heartbeats, so a node which stopped without
+ * closing its client is forgotten after at most three heartbeats, and removed by a TTL index after.
+ *
+ * <p>Every node keeps a local view of the registry, loaded once and then updated by a change stream
+ * of the presence collection, so checking a target never costs a round trip. While the view is not
+ * loaded, or its stream is lost, every target is considered listened to.
+ *
+ * <p>Validity is checked against the local clock, so clocks drifting apart by more than two heartbeats
+ * make nodes appear absent too early or for too long.
+ *
+ * @author Clouke
+ * @since 20.10.2026 01:47
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Presence implements Closeable {
+
+  /**
+   * Shared by the presence registries of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("Presence-%d")
+    .setDaemon(true)
+    .build();
+
+  private static final long TICK = 100L;
+
+  private final MongoPubSubClient client;
+  private final MongoCollection<Document> collection;
+  private final String nodeId;
+  private final long heartbeat;
+  private final PresencePolicy policy;
+  private final Map<String, Member> members = new ConcurrentHashMap<>();
+  private final Thread heartbeater;
+  private final Thread observer;
+  private volatile Map<String, List<Member>> listeners = Collections.emptyMap();
+  private volatile List<Member> matching = Collections.emptyList();
+  private volatile boolean ready;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs a new presence registry, and starts heartbeating & observing.
+   *
+   * @param client the client owning the registry.
+   * @param collection the collection holding the presence of every node.
+   * @param b the builder to configure the registry.
+   */
+  Presence(MongoPubSubClient client, MongoCollection<Document> collection, MongoClientBuilder b) {
+    this.client = client;
+    this.collection = collection;
+    this.nodeId = client.nodeId();
+    this.heartbeat = b.presenceHeartbeat;
+    this.policy = b.presencePolicy;
+    collection.createIndex(Indexes.ascending("until"), new IndexOptions()
+      .expireAfter(0L, TimeUnit.SECONDS));
+    heartbeater = FACTORY.newThread(this::beat);
+    observer = FACTORY.newThread(this::observe);
+    heartbeater.start();
+    observer.start();
+  }
+
+  /**
+   * Gets what to do with payloads whose target no node is listening to.
+   *
+   * @return the policy.
+   */
+  PresencePolicy policy() {
+    return policy;
+  }
+
+  /**
+   * Checks whether any node is listening to the target.
+   *
+   * @param target the target.
+   * @return true if a node is listening to the target, or the registry is not loaded, false otherwise.
+   */
+  boolean isListened(String target) {
+    if (!ready || client.subscribers().isSubscribed(target))
+      return true;
+
+    long now = System.currentTimeMillis();
+    List<Member> members = listeners.get(target);
+    if (members != null) {
+      for (Member member : members) {
+        if (member.until >= now)
+          return true;
+      }
+    }
+
+    for (Member member : matching) {
+      if (member.until >= now && member.matches(target))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Writes the presence of this node whenever its registrations change, and once per heartbeat.
+   */
+  private void beat() {
+    Set<String> writtenTargets = null;
+    Set<Document> writtenPatterns = null;
+    long nextBeat = 0L;
+    while (running) {
+      Set<String> targets = client.subscribers().identifiers();
+      Set<Document> patterns = new LinkedHashSet<>();
+      for (CursorSubscription subscription : client.subscriptions()) {
+        PayloadPublisher publisher = subscription.publisher();
+        if (publisher.target() != null) {
+          targets.add(publisher.target());
+        } else {
+          patterns.add(new Document("regex", publisher.pattern().pattern())
+            .append("flags", publisher.pattern().flags()));
+        }
+      }
+
+      long now = System.currentTimeMillis();
+      if (now >= nextBeat || !targets.equals(writtenTargets) || !patterns.equals(writtenPatterns)) {
+        try {
+          collection.replaceOne(Filters.eq("_id", nodeId), new Document("_id", nodeId)
+            .append("targets", new ArrayList<>(targets))
+            .append("patterns", new ArrayList<>(patterns))
+            .append("until", new Date(now + heartbeat * 3L)), new ReplaceOptions().upsert(true));
+          writtenTargets = targets;
+          writtenPatterns = patterns;
+          nextBeat = now + heartbeat;
+        } catch (MongoException e) {
+          if (running)
+            System.err.println("Could not write the presence of node " + nodeId + ": " + e.getMessage());
+        }
+      }
+
+      try {
+        Thread.sleep(TICK);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Keeps the local view up to date, reloading it whenever the stream is reopened.
+   */
+  private void observe() {
+    Backoff backoff = new Backoff(100L, 30_000L);
+    while (running) {
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection.watch()
+        .fullDocument(FullDocument.UPDATE_LOOKUP)
+        .cursor()) {
+        load(); // once the stream is open, so no change is missed in between
+        ready = true;
+        backoff.reset();
+        while (running) {
+          ChangeStreamDocument<Document> change = cursor.tryNext();
+          if (change != null && !apply(change))
+            break;
+        }
+      } catch (MongoException e) {
+        if (!running)
+          return;
+
+        System.err.println("Lost the presence stream of node " + nodeId + ", reconnecting: " + e.getMessage());
+      } catch (RuntimeException e) {
+        if (!running)
+          return;
+
+        e.printStackTrace(); // never stop observing, reload the view instead
+      } finally {
+        ready = false; // the view goes stale without its stream
+      }
+
+      if (!backoff.sleep())
+        return;
+    }
+  }
+
+  /**
+   * Replaces the local view with the current presence of every node.
+   */
+  private void load() {
+    Map<String, Member> loaded = new HashMap<>();
+    for (Document document : collection.find()) {
+      loaded.put(document.getString("_id"), new Member(document));
+    }
+    members.keySet().retainAll(loaded.keySet());
+    members.putAll(loaded);
+    index();
+  }
+
+  /**
+   * Applies a change of the presence collection to the local view.
+   *
+   * @param change the change.
+   * @return true if the stream is still valid, false if it must be reopened.
+   */
+  private boolean apply(ChangeStreamDocument<Document> change) {
+    OperationType operation = change.getOperationType();
+    if (operation == OperationType.DELETE) {
+      BsonDocument key = change.getDocumentKey();
+      if (key != null && key.isString("_id") && members.remove(key.getString("_id").getValue()) != null)
+        index();
+      return true;
+    }
+
+    if (operation == OperationType.DROP || operation == OperationType.INVALIDATE) {
+      ready = false;
+      return false;
+    }
+
+    Document document = change.getFullDocument();
+    if (document == null)
+      return true; // removed since
+
+    Member member = new Member(document);
+    Member current = members.get(member.nodeId);
+    if (current != null && current.listensTo(member)) {
+      current.until = member.until; // only a heartbeat, nothing to reindex
+      return true;
+    }
+
+    members.put(member.nodeId, member);
+    index();
+    return true;
+  }
+
+  /**
+   * Rebuilds the lookups of the local view, called by the observing thread only.
+   */
+  private void index() {
+    Map<String, List<Member>> listeners = new HashMap<>();
+    List<Member> matching = new ArrayList<>();
+    for (Member member : members.values()) {
+      for (String target : member.targets) {
+        listeners.computeIfAbsent(target, t -> new ArrayList<>(1)).add(member);
+      }
+      if (!member.patterns.isEmpty())
+        matching.add(member);
+    }
+    this.listeners = listeners;
+    this.matching = matching;
+  }
+
+  /**
+   * Stops heartbeating & observing, and removes the presence of this node,
+   * so other nodes stop publishing to the targets only this node listened to.
+   */
+  @Override
+  public void close() {
+    running = false;
+    heartbeater.interrupt();
+    observer.interrupt();
+    try {
+      heartbeater.join(1_000L);
+      observer.join(1_000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      collection.deleteOne(Filters.eq("_id", nodeId));
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * The presence of a node, as last seen in the registry.
+   */
+  private static final class Member {
+    private final String nodeId;
+    private final Set<String> targets;
+    private final List<Pattern> patterns;
+    private volatile long until;
+
+    private Member(Document document) {
+      this.nodeId = document.getString("_id");
+      this.targets = new HashSet<>(document.getList("targets", String.class, Collections.emptyList()));
+      this.patterns = new ArrayList<>();
+      for (Document pattern : document.getList("patterns", Document.class, Collections.emptyList())) {
+        patterns.add(Pattern.compile(pattern.getString("regex"), pattern.getInteger("flags", 0)));
+      }
+      Date until = document.getDate("until");
+      this.until = until != null ? until.getTime() : 0L;
+    }
+
+    /**
+     * Checks whether a pattern of this node matches the target, like the change stream filter
+     * of a {@link PayloadPublisher} would.
+     *
+     * @param target the target.
+     * @return true if a pattern matches, false otherwise.
+     */
+    private boolean matches(String target) {
+      for (Pattern pattern : patterns) {
+        if (pattern.matcher(target).find())
+          return true;
+      }
+      return false;
+    }
+
+    /**
+     * Checks whether the other presence listens to the same targets & patterns.
+     *
+     * @param other the other presence.
+     * @return true if both listen to the same, false otherwise.
+     */
+    private boolean listensTo(Member other) {
+      if (!targets.equals(other.targets) || patterns.size() != other.patterns.size())
+        return false;
+
+      for (int i = 0; i < patterns.size(); i++) {
+        Pattern pattern = patterns.get(i);
+        Pattern otherPattern = other.patterns.get(i);
+        if (!pattern.pattern().equals(otherPattern.pattern()) || pattern.flags() != otherPattern.flags())
+          return false;
+      }
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,30 @@
+package gg.clouke.mps;
+
+/**
+ * Represents what {@link MongoPubSubClient#enqueue(String, Payload)} does with a payload
+ * whose target no node is listening to, configured through
+ * {@link MongoClientBuilder#presence(long, java.util.concurrent.TimeUnit, PresencePolicy)}.
+ *
+ * @author Clouke
+ * @since 20.10.2026 01:41
+ * © mongo-pubsub - All Rights Reserved
+ */
+public enum PresencePolicy {
+
+  /**
+   * Publishes the payload anyway, only counting it as unlistened.
+   * Useful to measure how many publishes would be saved before dropping them.
+   */
+  PUBLISH,
+
+  /**
+   * Drops the payload without publishing it.
+   */
+  DROP,
+
+  /**
+   * Throws an {@link IllegalStateException} instead of publishing the payload.
+   */
+  REJECT
+
+}
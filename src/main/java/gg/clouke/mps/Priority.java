@@ -0,0 +1,52 @@
+package gg.clouke.mps;
+
+/**
+ * Represents the priority class of a target, deciding which dispatch lane its payloads queue in.
+ *
+ * <p>Priority classes only apply when dispatch lanes are enabled through
+ * {@link MongoClientBuilder#priorityLanes(LanePolicy, int)}. Classes are set per target through
+ * {@link MongoPubSubClient#priority(String, Priority)}, defaulting to {@link #NORMAL}, so every payload
+ * of a target queues in the same lane and is delivered in order, one at a time.
+ *
+ * @author Clouke
+ * @since 19.10.2026 21:03
+ * © mongo-pubsub - All Rights Reserved
+ */
+public enum Priority {
+
+  /**
+   * Commands which must never wait behind other traffic, e.g. admin & anti-cheat commands.
+   */
+  CRITICAL(8),
+
+  /**
+   * Latency-sensitive payloads.
+   */
+  HIGH(4),
+
+  /**
+   * Regular payloads, the default class.
+   */
+  NORMAL(2),
+
+  /**
+   * High-volume, low-value payloads, e.g. telemetry.
+   */
+  LOW(1);
+
+  private final int weight;
+
+  Priority(int weight) {
+    this.weight = weight;
+  }
+
+  /**
+   * Gets the share of dispatches this class gets under {@link LanePolicy#WEIGHTED}.
+   *
+   * @return the weight of the class.
+   */
+  public int weight() {
+    return weight;
+  }
+
+}
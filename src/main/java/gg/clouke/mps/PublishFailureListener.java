@@ -0,0 +1,34 @@
+package gg.clouke.mps;
+
+/**
+ * <p>
+ *  A listener notified when a payload could not be published after the caller had already
+ *  returned, i.e. by a batched publish lane enabled through
+ *  {@link MongoClientBuilder#batchPublishes(int, long, java.util.concurrent.TimeUnit)}, or by
+ *  an encode worker enabled through {@link MongoClientBuilder#encodeWorkers(int, int)}.
+ * </p>
+ *
+ * <pre>
+ *  {@code
+ *    client.onPublishFailure((target, payload, error) ->
+ *      client.enqueue(target, payload, Durability.MAJORITY)); // or store it for later
+ *  }
+ * </pre>
+ *
+ * @author Clouke
+ * @since 20.10.2026 03:02
+ * © mongo-pubsub - All Rights Reserved
+ */
+@FunctionalInterface
+public interface PublishFailureListener {
+
+  /**
+   * Called once a payload was given up on, after transient errors were retried.
+   *
+   * @param target the target of the payload
+   * @param payload the payload which was not published, including the fields stamped by the client
+   * @param error the error of the last attempt
+   */
+  void onFailure(String target, Payload payload, Throwable error);
+
+}
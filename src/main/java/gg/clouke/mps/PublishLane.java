@@ -0,0 +1,322 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import gg.acai.acava.io.Closeable;
+import org.bson.Document;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A publish lane of a single {@link Durability} tier.
+ *
+ * <p>Holds the collection handle configured with the write concern of its tier. If batching
+ * is enabled through {@link MongoClientBuilder#batchPublishes(int, long, TimeUnit)}, payloads
+ * are buffered and written with {@code insertMany} by the lane's own thread, once the batch is
+ * full or the linger time has elapsed. Otherwise, payloads are inserted on the caller thread.
+ *
+ * <p>A batch failing with a transient error, such as a lost connection or an election, is retried
+ * after a capped exponential backoff, up to {@value #MAX_ATTEMPTS} attempts. Payloads written before
+ * the failure of an ordered batch are never written again. A payload whose {@code _id} collides with
+ * its own write, by an attempt which seemed to fail, counts as written. A payload rejected by the
+ * server is given up on alone, without the rest of its batch. Payloads given up on are reported to
+ * the {@link PublishFailureListener} of the client, since their caller has returned already.
+ *
+ * <p>Lanes fed by the {@link EncodeStage} hold {@link org.bson.RawBsonDocument}s, encoded by the
+ * publishing thread, so the insert only copies their bytes to the wire.
+ *
+ * @param <T> the class of the documents written by this lane.
+ * @author Clouke
+ * @since 19.10.2026 11:20
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class PublishLane<T extends Map<String, ?>> implements Closeable {
+
+  private static final InsertManyOptions ORDERED = new InsertManyOptions().ordered(true);
+
+  /**
+   * The maximum amount of attempts to write a batch.
+   */
+  static final int MAX_ATTEMPTS = 5;
+
+  private static final long RETRY_BACKOFF = 100L;
+  private static final long MAX_RETRY_BACKOFF = 5_000L;
+
+  private final MongoCollection<T> collection;
+  private final Function<Document, T> encoder;
+  private final Tracer tracer;
+  private final BiConsumer<T, Throwable> failure;
+  private final int batchSize;
+  private final long linger;
+  private final BlockingQueue<T> queue;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Thread executor;
+  private volatile boolean running = true;
+
+  /**
+   * Constructs a new publish lane.
+   *
+   * @param durability the durability tier of this lane.
+   * @param collection the collection handle configured for the tier.
+   * @param encoder encodes a document to the class of the collection, on the publishing thread.
+   * @param batchSize the maximum amount of payloads per batch, 1 or less disables batching.
+   * @param linger the maximum time in nanoseconds to wait for a batch to fill up.
+   * @param tracer the tracer completing the traces of inserted payloads.
+   * @param failure reports a buffered payload which was given up on.
+   */
+  PublishLane(Durability durability, MongoCollection<T> collection, Function<Document, T> encoder,
+              int batchSize, long linger, Tracer tracer, BiConsumer<T, Throwable> failure) {
+    this.collection = collection;
+    this.encoder = encoder;
+    this.tracer = tracer;
+    this.failure = failure;
+    this.batchSize = batchSize;
+    this.linger = linger;
+    if (batchSize <= 1) {
+      this.queue = null;
+      this.executor = null;
+      return;
+    }
+
+    this.queue = new ArrayBlockingQueue<>(batchSize * 64);
+    this.executor = new ThreadFactoryBuilder()
+      .setNameFormat("PublishLane-" + durability.name().toLowerCase() + "-%d")
+      .setDaemon(true)
+      .build()
+      .newThread(this::drain);
+    executor.start();
+  }
+
+  /**
+   * Gets the collection handle of this lane.
+   *
+   * @return the collection handle.
+   */
+  @Nonnull
+  MongoCollection<T> collection() {
+    return collection;
+  }
+
+  /**
+   * Publishes a document through this lane, blocking if the lane's buffer is full.
+   *
+   * @param document the document to publish.
+   * @throws IllegalStateException if the thread is interrupted while waiting for buffer space.
+   */
+  void publish(Document document) {
+    T encoded = encoder.apply(document);
+    if (queue == null) {
+      collection.insertOne(encoded); // a failure is discarded by the client
+      tracer.acknowledged(document);
+      return;
+    }
+
+    pending.incrementAndGet();
+    try {
+      queue.put(encoded);
+    } catch (InterruptedException e) {
+      release(1);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for publish lane capacity.", e);
+    }
+  }
+
+  /**
+   * Waits for the buffered payloads of this lane to be written.
+   *
+   * @param deadline the {@link System#nanoTime()} at which to stop waiting.
+   * @return true if the lane was flushed in time, false otherwise.
+   */
+  boolean flush(long deadline) {
+    synchronized (pending) {
+      long remaining;
+      while (pending.get() > 0 && (remaining = deadline - System.nanoTime()) > 0L) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(pending, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return pending.get() == 0;
+    }
+  }
+
+  /**
+   * Gets the amount of payloads which are buffered or being written.
+   *
+   * @return the amount of pending payloads.
+   */
+  int pending() {
+    return pending.get();
+  }
+
+  /**
+   * Drains the buffer of this lane in batches until the lane is closed.
+   */
+  private void drain() {
+    List<T> batch = new ArrayList<>(batchSize);
+    while (running || !queue.isEmpty()) {
+      try {
+        T first = queue.poll(100L, TimeUnit.MILLISECONDS);
+        if (first == null)
+          continue;
+
+        batch.add(first);
+        long deadline = System.nanoTime() + linger;
+        while (batch.size() < batchSize) {
+          long remaining = deadline - System.nanoTime();
+          T next = remaining > 0L
+            ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+            : queue.poll();
+          if (next == null)
+            break;
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        if (!running && queue.isEmpty() && batch.isEmpty())
+          return;
+      }
+
+      if (batch.isEmpty())
+        continue;
+
+      try {
+        insert(batch);
+      } finally {
+        release(batch.size());
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Writes a batch, retrying transient errors with the documents which were not written yet.
+   *
+   * @param batch the batch to write.
+   */
+  private void insert(List<T> batch) {
+    Backoff backoff = new Backoff(RETRY_BACKOFF, MAX_RETRY_BACKOFF);
+    int from = 0;
+    while (from < batch.size()) {
+      List<T> remaining = batch.subList(from, batch.size());
+      try {
+        collection.insertMany(remaining, ORDERED);
+        remaining.forEach(tracer::acknowledged);
+        return;
+      } catch (MongoException e) {
+        if (e instanceof MongoBulkWriteException) {
+          MongoBulkWriteException bulk = (MongoBulkWriteException) e;
+          int inserted = bulk.getWriteResult().getInsertedCount(); // ordered, so the first ones
+          remaining.subList(0, inserted).forEach(tracer::acknowledged);
+          from += inserted;
+          if (!bulk.getWriteErrors().isEmpty() && from < batch.size()) {
+            if (isWritten(bulk.getWriteErrors().get(0))) {
+              tracer.acknowledged(batch.get(from++)); // written by an attempt which seemed to fail
+              continue;
+            }
+            fail(batch.get(from++), e); // rejected by the server, the rest of the batch goes on
+            backoff.reset();
+            continue;
+          }
+        }
+
+        if (!isTransient(e) || backoff.attempts() + 1 >= MAX_ATTEMPTS || !backoff.sleep()) {
+          batch.subList(from, batch.size()).forEach(document -> fail(document, e));
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives up on a buffered payload, and reports it to the client.
+   *
+   * @param document the payload.
+   * @param error the error of the last attempt.
+   */
+  private void fail(T document, Throwable error) {
+    tracer.discard(document);
+    try {
+      failure.accept(document, error);
+    } catch (RuntimeException e) {
+      e.printStackTrace(); // never stop the lane
+    }
+  }
+
+  /**
+   * Checks whether a write error means the document was written by an earlier attempt, i.e. its
+   * own {@code _id}, stamped before the first attempt, collided.
+   *
+   * @param error the write error.
+   * @return true if the document is written already, false otherwise.
+   */
+  static boolean isWritten(BulkWriteError error) {
+    return ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY
+      && error.getMessage() != null && error.getMessage().contains("_id_");
+  }
+
+  /**
+   * Checks whether a write may succeed when retried.
+   *
+   * @param e the error of the write.
+   * @return true if the error is transient, false otherwise.
+   */
+  static boolean isTransient(MongoException e) {
+    return e instanceof MongoSocketException
+      || e instanceof MongoTimeoutException
+      || e instanceof MongoNotPrimaryException
+      || e instanceof MongoNodeIsRecoveringException
+      || e.hasErrorLabel("RetryableWriteError")
+      || e.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL);
+  }
+
+  /**
+   * Releases the given amount of pending payloads, notifying flushing threads once empty.
+   *
+   * @param amount the amount of payloads to release.
+   */
+  private void release(int amount) {
+    if (pending.addAndGet(-amount) == 0) {
+      synchronized (pending) {
+        pending.notifyAll(); // notify the flushing threads
+      }
+    }
+  }
+
+  /**
+   * Closes this lane. Payloads which are still buffered are written before the lane's thread stops.
+   */
+  @Override
+  public void close() {
+    running = false;
+    if (executor == null)
+      return;
+
+    try {
+      executor.join(1000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor.interrupt();
+  }
+
+}
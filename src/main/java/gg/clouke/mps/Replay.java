@@ -0,0 +1,176 @@
+package gg.clouke.mps;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the history of a target to a subscriber, then hands it over to the live change stream.
+ *
+ * <p>The replay is registered as the live subscriber of the target before the history is read, and
+ * buffers the live payloads meanwhile. Once the history is exhausted, the buffered payloads are
+ * delivered, skipping those already replayed, and live payloads are passed through from then on.
+ * Payloads published while the replay starts are therefore delivered exactly once, from either side.
+ *
+ * <p>The buffer holds at most {@value #BUFFER_CAPACITY} payloads. Once it overflows, the buffered
+ * payloads are dropped, and the history is read again from the start of the overlap once exhausted,
+ * skipping the payloads already replayed. Every dropped payload was inserted before it was received,
+ * so it is replayed from the history instead.
+ *
+ * <p>Only the ids of replayed payloads sent shortly before the replay started are remembered,
+ * as older payloads can no longer arrive through the change stream.
+ *
+ * @author Clouke
+ * @since 19.10.2026 22:31
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Replay implements Subscriber {
+
+  /**
+   * How long before the start of the replay payloads may still arrive through the change stream,
+   * e.g. while the watcher is reconnecting.
+   */
+  private static final long OVERLAP = TimeUnit.MINUTES.toMillis(5L);
+
+  /**
+   * The maximum amount of live payloads buffered while replaying.
+   */
+  static final int BUFFER_CAPACITY = 10_000;
+
+  private final String target;
+  private final Subscriber handler;
+  private final long overlapFrom;
+  private final Set<Object> replayed = new HashSet<>();
+  private List<Payload> buffer = new ArrayList<>();
+  private boolean overflowed;
+
+  /**
+   * Constructs a new replay.
+   *
+   * @param target the target to replay.
+   * @param handler the subscriber receiving the history & live payloads.
+   */
+  Replay(String target, Subscriber handler) {
+    this.target = target;
+    this.handler = handler;
+    this.overlapFrom = System.currentTimeMillis() - OVERLAP;
+  }
+
+  @Override
+  public synchronized void onMessage(Payload payload) {
+    if (buffer != null) {
+      if (overflowed || buffer.size() >= BUFFER_CAPACITY) {
+        overflow(); // read again from the history
+        payload.close();
+        return;
+      }
+      buffer.add(payload); // replaying, delivered on handover
+      return;
+    }
+
+    handler.onMessage(payload);
+  }
+
+  @Override
+  public String getIdentifier() {
+    return target;
+  }
+
+  /**
+   * Streams the history of the target to the handler, then hands over to the live payloads.
+   *
+   * @param publishers the publishers collection.
+   * @param subscribers the subscribers, decoding the history like live payloads.
+   * @param since the send time of the oldest payload to replay.
+   * @param batchSize the amount of payloads fetched per batch.
+   * @param routing admits the payloads routed to this node.
+   * @return the amount of replayed payloads.
+   */
+  long run(MongoCollection<Document> publishers, Subscribers subscribers, Date since, int batchSize, Bson routing) {
+    long replayed = read(publishers, subscribers, since, batchSize, routing);
+    Date overlap = new Date(Math.max(since.getTime(), overlapFrom));
+    while (!handover()) {
+      replayed += read(publishers, subscribers, overlap, batchSize, routing); // the dropped live payloads
+    }
+    return replayed;
+  }
+
+  /**
+   * Streams the history of the target from the given time to the handler, skipping the payloads
+   * already replayed.
+   *
+   * @return the amount of replayed payloads.
+   */
+  private long read(MongoCollection<Document> publishers, Subscribers subscribers, Date since, int batchSize, Bson routing) {
+    long replayed = 0L;
+    try (MongoCursor<Document> cursor = publishers.find(Filters.and(
+        Filters.eq("payload:target", target),
+        Filters.gte("payload:send", since),
+        routing))
+      .sort(Sorts.ascending("payload:send", "_id"))
+      .batchSize(batchSize)
+      .iterator()) {
+      while (cursor.hasNext()) {
+        Document document = cursor.next();
+        Date send = document.getDate("payload:send");
+        if (send != null && send.getTime() >= overlapFrom && !this.replayed.add(document.get("_id")))
+          continue; // replayed before the buffer overflowed
+
+        handler.onMessage(subscribers.payload(document));
+        replayed++;
+      }
+    }
+    return replayed;
+  }
+
+  /**
+   * Drops the buffered live payloads, which are read again from the history instead.
+   */
+  private void overflow() {
+    if (overflowed)
+      return;
+
+    overflowed = true;
+    buffer.forEach(Payload::close);
+    buffer.clear();
+  }
+
+  /**
+   * Delivers the live payloads buffered during the replay, and passes live payloads through from now on,
+   * unless the buffer overflowed since the last read of the history.
+   *
+   * @return true if handed over, false if the history must be read again.
+   */
+  private synchronized boolean handover() {
+    if (overflowed) {
+      overflowed = false; // buffer again while reading
+      return false;
+    }
+
+    List<Payload> buffer = this.buffer;
+    this.buffer = null;
+    try {
+      for (Payload payload : buffer) {
+        if (replayed.contains(payload.getNestedValue("_id"))) {
+          payload.close(); // already replayed from the history
+          continue;
+        }
+        handler.onMessage(payload);
+      }
+    } finally {
+      replayed.clear();
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,76 @@
+package gg.clouke.mps;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent traces in a fixed size ring, overwriting the oldest trace once full.
+ * The default sink of {@link gg.clouke.mps.MongoClientBuilder#tracing(int)}.
+ *
+ * <p>Accepting a trace is a single increment & store, so the ring can be written by the
+ * publishing & dispatching threads without contention, and dumped on demand, e.g. through
+ * {@link Tracer#dump()} once a latency spike is noticed.
+ *
+ * @author Clouke
+ * @since 19.10.2026 23:04
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class RingBufferTraceSink implements TraceSink {
+
+  private final AtomicReferenceArray<Trace> ring;
+  private final AtomicLong index = new AtomicLong();
+
+  /**
+   * Constructs a new ring buffer sink.
+   *
+   * @param capacity the amount of traces kept.
+   */
+  public RingBufferTraceSink(int capacity) {
+    this.ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+  }
+
+  @Override
+  public void accept(Trace trace) {
+    ring.set((int) (index.getAndIncrement() % ring.length()), trace);
+  }
+
+  /**
+   * Gets the traces currently held by the ring, oldest first.
+   *
+   * @return a snapshot of the held traces.
+   */
+  @Nonnull
+  public List<Trace> dump() {
+    long end = index.get();
+    long start = Math.max(0L, end - ring.length());
+    List<Trace> traces = new ArrayList<>((int) (end - start));
+    for (long i = start; i < end; i++) {
+      Trace trace = ring.get((int) (i % ring.length()));
+      if (trace != null)
+        traces.add(trace);
+    }
+    return traces;
+  }
+
+  /**
+   * Removes every trace from the ring.
+   */
+  public void clear() {
+    for (int i = 0; i < ring.length(); i++) {
+      ring.set(i, null);
+    }
+  }
+
+  /**
+   * Gets the amount of traces the ring holds at most.
+   *
+   * @return the capacity of the ring.
+   */
+  public int capacity() {
+    return ring.length();
+  }
+
+}
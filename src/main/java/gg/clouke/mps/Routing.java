@@ -0,0 +1,376 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import gg.acai.acava.io.Closeable;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes payloads addressed to a single node, or to the owner of a partition of a group.
+ *
+ * <p>Payloads enqueued through {@link MongoPubSubClient#enqueueToNode(String, String, Payload)} carry the
+ * id of their node, and are filtered out of the change stream of every other node by the server.
+ *
+ * <p>Payloads enqueued through {@link MongoPubSubClient#enqueuePartitioned(String, String, String, Payload)}
+ * carry their group, and the partition their key hashes to. The partitions of a group are assigned to its
+ * live members by rendezvous hashing, so a joining member only takes partitions over from the others, and
+ * a leaving member only hands its own partitions over. The change stream of each member only admits the
+ * partitions it owns.
+ *
+ * <p>Members heartbeat into the members collection. Whenever a member joins, leaves, or misses three
+ * heartbeats, a rebalance listing the live members is published to the publishers collection. Each member
+ * applies it once its watcher reaches it, and reopens its stream from there with its new partitions. When
+ * a member joins, or leaves by closing its client, every member applies the rebalance at the same position
+ * of the stream, so a moved partition is delivered by its old owner up to the rebalance, and by its new
+ * owner from it, without a payload being missed or delivered twice. A member only joins once the change
+ * stream of its watcher is open, so it always reads its own join rebalance.
+ *
+ * <p>A member which crashes publishes no rebalance. Its partitions keep being routed to it until its
+ * membership expires and another member publishes the corrective rebalance, i.e. for up to five heartbeats,
+ * and the payloads published to them in between are not delivered by any member.
+ *
+ * @author Clouke
+ * @since 20.10.2026 02:14
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Routing implements Closeable {
+
+  /**
+   * The field holding the id of the node a payload is addressed to.
+   */
+  static final String NODE = "payload:node";
+
+  /**
+   * The field holding the group of a partitioned payload.
+   */
+  static final String GROUP = "payload:group";
+
+  /**
+   * The field holding the partition of a partitioned payload.
+   */
+  static final String PARTITION = "payload:partition";
+
+  /**
+   * The field holding the group of a rebalance.
+   */
+  static final String REBALANCE = "payload:rebalance";
+
+  /**
+   * The field holding the live members of a rebalance.
+   */
+  static final String MEMBERS = "payload:members";
+
+  /**
+   * Shared by the routings of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("Partitions-%d")
+    .setDaemon(true)
+    .build();
+
+  private final MongoPubSubClient client;
+  private final MongoCollection<Document> members;
+  private final String nodeId;
+  private final String group;
+  private final int partitionCount;
+  private final long heartbeat;
+  private final Thread thread;
+  private volatile List<String> applied = Collections.emptyList();
+  private volatile Set<Integer> owned = Collections.emptySet();
+  private volatile boolean running = true;
+  private boolean started;
+
+  /**
+   * Constructs a new routing. The partition group of this node, if configured, is only joined
+   * once {@link #start()} is called.
+   *
+   * @param client the client owning the routing.
+   * @param members the collection holding the members of every group.
+   * @param b the builder to configure the routing.
+   */
+  Routing(MongoPubSubClient client, MongoCollection<Document> members, MongoClientBuilder b) {
+    this.client = client;
+    this.members = members;
+    this.nodeId = client.nodeId();
+    this.group = b.partitionGroup;
+    this.partitionCount = b.partitionCount;
+    this.heartbeat = b.partitionHeartbeat;
+    if (group != null) {
+      members.createIndex(Indexes.ascending("until"), new IndexOptions()
+        .expireAfter(0L, TimeUnit.SECONDS));
+      thread = FACTORY.newThread(this::run);
+    } else {
+      thread = null;
+    }
+  }
+
+  /**
+   * Joins the partition group of this node, if configured. Called by the watcher once its change
+   * stream is open, so the rebalance announcing the join is never published before the stream
+   * of this node can read it. Calling it again has no further effect.
+   */
+  synchronized void start() {
+    if (thread == null || started || !running)
+      return;
+
+    started = true;
+    thread.start();
+  }
+
+  /**
+   * Gets the amount of partitions keys are hashed into.
+   *
+   * @return the partition count.
+   */
+  int partitionCount() {
+    return partitionCount;
+  }
+
+  /**
+   * Gets the partitions of its group currently owned by this node.
+   *
+   * @return an immutable set of the owned partitions, empty if this node is not a member of a group.
+   */
+  Set<Integer> owned() {
+    return owned;
+  }
+
+  /**
+   * Builds the filter admitting the payloads of this node, i.e. broadcast payloads, payloads addressed
+   * to this node, and payloads of the partitions it owns.
+   *
+   * @param prefix the prefix of the payload fields, e.g. {@code fullDocument.} within a change stream.
+   * @return the filter.
+   */
+  Bson filter(String prefix) {
+    Bson addressed = Filters.or(
+      Filters.exists(prefix + NODE, false),
+      Filters.eq(prefix + NODE, nodeId));
+    Bson partitioned = group == null
+      ? Filters.exists(prefix + GROUP, false)
+      : Filters.or(
+        Filters.exists(prefix + GROUP, false),
+        Filters.and(Filters.eq(prefix + GROUP, group), Filters.in(prefix + PARTITION, owned)));
+    return Filters.and(addressed, partitioned);
+  }
+
+  /**
+   * Applies a rebalance of the group of this node.
+   *
+   * @param rebalance the rebalance, listing the live members of its group.
+   * @return true if the partitions owned by this node changed, false otherwise.
+   */
+  boolean rebalance(Document rebalance) {
+    if (group == null || !group.equals(rebalance.getString(REBALANCE)))
+      return false;
+
+    List<String> members = new ArrayList<>(rebalance.getList(MEMBERS, String.class, Collections.emptyList()));
+    Collections.sort(members);
+    applied = Collections.unmodifiableList(members);
+    Set<Integer> owned = assign(nodeId, members, partitionCount);
+    if (owned.equals(this.owned))
+      return false;
+
+    this.owned = owned;
+    return true;
+  }
+
+  /**
+   * Renews the membership of this node once per heartbeat, and publishes a rebalance when joining,
+   * or when the live members differ from the last rebalance for two heartbeats in a row.
+   */
+  private void run() {
+    boolean joined = false;
+    int stale = 0;
+    while (running) {
+      try {
+        long now = System.currentTimeMillis();
+        members.replaceOne(Filters.eq("_id", nodeId), new Document("_id", nodeId)
+          .append("group", group)
+          .append("until", new Date(now + heartbeat * 3L)), new ReplaceOptions().upsert(true));
+        List<String> live = live(now);
+        if (live.equals(applied)) {
+          stale = 0;
+        } else if (!joined || ++stale >= 2) {
+          announce(live); // any member may correct, identical rebalances move nothing
+          stale = 0;
+        }
+        joined = true;
+      } catch (MongoException e) {
+        if (running)
+          System.err.println("Could not renew the membership of node " + nodeId + " in group " + group + ": " + e.getMessage());
+      }
+
+      try {
+        Thread.sleep(heartbeat);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Finds the live members of the group of this node.
+   *
+   * @param now the current time in milliseconds.
+   * @return the sorted ids of the live members.
+   */
+  private List<String> live(long now) {
+    List<String> live = new ArrayList<>();
+    for (Document member : members.find(Filters.and(
+        Filters.eq("group", group),
+        Filters.gte("until", new Date(now))))
+      .projection(Projections.include("_id"))) {
+      live.add(member.getString("_id"));
+    }
+    Collections.sort(live);
+    return live;
+  }
+
+  /**
+   * Publishes a rebalance of the group of this node, applied by every member once its watcher reaches it.
+   *
+   * @param members the live members of the group.
+   */
+  private void announce(List<String> members) {
+    client.publishers().insertOne(new Document(REBALANCE, group)
+      .append(MEMBERS, members)
+      .append("payload:send", new Date()));
+  }
+
+  /**
+   * Leaves the group of this node, handing its partitions over to the remaining members.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      running = false;
+      if (!started)
+        return; // never joined
+    }
+
+    thread.interrupt();
+    try {
+      thread.join(1_000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      members.deleteOne(Filters.eq("_id", nodeId));
+      List<String> live = live(System.currentTimeMillis());
+      live.remove(nodeId);
+      announce(live);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Gets the route of a document, keeping the sequences of addressed & partitioned payloads
+   * apart from the broadcast sequence of their target.
+   *
+   * @param document the document.
+   * @return the route, or null if the document is broadcast.
+   */
+  @Nullable
+  static String route(Document document) {
+    Object node = document.get(NODE);
+    if (node != null)
+      return "@" + node;
+
+    Object group = document.get(GROUP);
+    if (group != null)
+      return "#" + group + "/" + document.get(PARTITION);
+    return null;
+  }
+
+  /**
+   * Hashes a key into its partition, stable across processes.
+   *
+   * @param key the key.
+   * @param partitionCount the amount of partitions.
+   * @return the partition of the key.
+   */
+  static int partition(String key, int partitionCount) {
+    return (int) Long.remainderUnsigned(hash(key), partitionCount);
+  }
+
+  /**
+   * Assigns each partition to the member with the highest weight for it. A member joining
+   * or leaving only moves the partitions it wins or held, about {@code 1 / members} of them.
+   *
+   * @param nodeId the id of the node to assign the partitions of.
+   * @param members the sorted ids of the live members.
+   * @param partitionCount the amount of partitions.
+   * @return an immutable set of the partitions of the node.
+   */
+  static Set<Integer> assign(String nodeId, List<String> members, int partitionCount) {
+    if (!members.contains(nodeId))
+      return Collections.emptySet();
+
+    long[] seeds = new long[members.size()];
+    for (int i = 0; i < seeds.length; i++) {
+      seeds[i] = hash(members.get(i));
+    }
+
+    Set<Integer> owned = new TreeSet<>();
+    for (int partition = 0; partition < partitionCount; partition++) {
+      int owner = 0;
+      long best = 0L;
+      for (int i = 0; i < seeds.length; i++) {
+        long weight = mix(seeds[i] ^ (partition + 1) * 0x9E3779B97F4A7C15L);
+        if (i == 0 || Long.compareUnsigned(weight, best) > 0) {
+          owner = i;
+          best = weight;
+        }
+      }
+      if (members.get(owner).equals(nodeId))
+        owned.add(partition);
+    }
+    return Collections.unmodifiableSet(owned);
+  }
+
+  /**
+   * 64-bit FNV-1a of the UTF-8 bytes of a string, finished by {@link #mix(long)}.
+   */
+  private static long hash(String value) {
+    long hash = 0xCBF29CE484222325L;
+    for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xFF;
+      hash *= 0x100000001B3L;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * The finalizer of MurmurHash3, spreading every input bit over the whole hash.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB93F53CCE49BL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+}
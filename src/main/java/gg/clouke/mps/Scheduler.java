@@ -0,0 +1,346 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Releases payloads scheduled for later delivery through
+ * {@link MongoPubSubClient#enqueueAt(String, Payload, java.time.Instant)}.
+ *
+ * <p>Scheduled payloads are stored in their own collection, indexed on their delivery time.
+ * Nodes releasing scheduled payloads elect a single leader through a lease document, so each
+ * payload is released once. The leader loads the payloads due within the next 30 seconds into a
+ * {@link TimingWheel}, and publishes them to the publishers collection once their time has come.
+ * Payloads scheduled further ahead stay in the database, so scheduling millions of payloads costs
+ * neither a thread nor a task apiece.
+ *
+ * <p>A released payload is stamped like any enqueued payload, i.e. with its send time, the publisher
+ * id & sequence number of the releasing node and its trace, and inserted with the write concern of
+ * its durability tier. It keeps the id of its schedule, and is inserted before the schedule is
+ * removed, so a leader failing in between never releases it twice. Payloads are released with a precision
+ * of about one second for payloads scheduled less than a second ahead, and 100 milliseconds otherwise.
+ *
+ * @author Clouke
+ * @since 19.10.2026 21:58
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Scheduler implements Closeable {
+
+  /**
+   * The field holding the delivery time of a scheduled payload.
+   */
+  static final String DELIVER_AT = "payload:deliverAt";
+
+  /**
+   * The field holding the name of the durability tier of a scheduled payload.
+   */
+  static final String DURABILITY = "payload:durability";
+
+  /**
+   * Shared by the schedulers of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("Scheduler-%d")
+    .setDaemon(true)
+    .build();
+
+  private static final String LEASE = "scheduler";
+  private static final long TICK = 100L;
+  private static final long SCAN_INTERVAL = 1_000L;
+  private static final long HORIZON = 30_000L;
+  private static final long LEASE_TIME = 10_000L;
+  private static final int SCAN_LIMIT = 10_000;
+
+  private final MongoPubSubClient client;
+  private final MongoCollection<Document> scheduled;
+  private final MongoCollection<Document> leases;
+  private final MongoCollection<Document> publishers;
+  private final Metrics metrics;
+  private final String nodeId;
+  private final Set<Object> loaded = new HashSet<>();
+  private final List<Object> due = new ArrayList<>();
+  private TimingWheel<Object> wheel;
+  private Thread thread;
+  private volatile boolean running = true;
+  private boolean indexed;
+  private volatile boolean leader;
+
+  /**
+   * Constructs a new scheduler.
+   *
+   * @param client the client owning the scheduler.
+   * @param scheduled the collection holding the scheduled payloads.
+   * @param leases the collection holding the leader lease.
+   * @param b the builder to configure the scheduler.
+   */
+  Scheduler(MongoPubSubClient client, MongoCollection<Document> scheduled, MongoCollection<Document> leases, MongoClientBuilder b) {
+    this.client = client;
+    this.scheduled = scheduled;
+    this.leases = leases;
+    this.publishers = client.publishers();
+    this.metrics = client.metrics();
+    this.nodeId = client.nodeId();
+    if (b.releaseScheduled) {
+      ensureIndexes();
+      thread = FACTORY.newThread(this::run);
+      thread.start();
+    }
+  }
+
+  /**
+   * Stores a payload to be released at its delivery time. Scheduling a payload
+   * again, e.g. when retrying after a timeout, has no further effect.
+   *
+   * @param document the payload, stamped with its id, target & delivery time.
+   * @param collection the scheduled collection, with the write concern of the payload.
+   */
+  void schedule(Document document, MongoCollection<Document> collection) {
+    ensureIndexes();
+    try {
+      collection.insertOne(document);
+      metrics.increment(Metric.SCHEDULED);
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY)
+        throw e;
+    }
+  }
+
+  /**
+   * Cancels a scheduled payload, unless it was released already.
+   *
+   * @param id the id of the payload.
+   * @return true if the payload was cancelled, false otherwise.
+   */
+  boolean cancel(ObjectId id) {
+    return scheduled.deleteOne(Filters.eq("_id", id)).getDeletedCount() > 0L;
+  }
+
+  /**
+   * Gets the collection holding the scheduled payloads.
+   *
+   * @return the scheduled collection.
+   */
+  MongoCollection<Document> scheduled() {
+    return scheduled;
+  }
+
+  /**
+   * Checks whether this node is currently releasing the scheduled payloads.
+   *
+   * @return true if this node holds the lease, false otherwise.
+   */
+  boolean isLeader() {
+    return leader;
+  }
+
+  private void run() {
+    long nextScan = 0L;
+    while (running) {
+      try {
+        long now = System.currentTimeMillis();
+        if (now >= nextScan) {
+          nextScan = now + SCAN_INTERVAL;
+          if (lease(now)) {
+            scan(now);
+          }
+        }
+
+        if (wheel != null) {
+          wheel.advance(now, due::add);
+          if (!due.isEmpty())
+            release();
+        }
+
+        Thread.sleep(TICK);
+      } catch (InterruptedException e) {
+        break;
+      } catch (RuntimeException e) {
+        if (running) e.printStackTrace();
+        loaded.removeAll(due); // reloaded by the next scan
+        due.clear();
+      }
+    }
+  }
+
+  /**
+   * Acquires or renews the lease of this node.
+   *
+   * @param now the current time in milliseconds.
+   * @return true if this node holds the lease, false otherwise.
+   */
+  private boolean lease(long now) {
+    boolean leader;
+    try {
+      leases.findOneAndUpdate(Filters.and(
+          Filters.eq("_id", LEASE),
+          Filters.or(Filters.eq("owner", nodeId), Filters.lt("until", new Date(now)))),
+        Updates.combine(
+          Updates.set("owner", nodeId),
+          Updates.set("until", new Date(now + LEASE_TIME))),
+        new FindOneAndUpdateOptions().upsert(true));
+      leader = true;
+    } catch (MongoCommandException e) {
+      if (ErrorCategory.fromErrorCode(e.getErrorCode()) != ErrorCategory.DUPLICATE_KEY)
+        throw e;
+      leader = false; // held by another node, the upsert collided with its lease
+    }
+
+    if (leader && wheel == null) {
+      wheel = new TimingWheel<>(TICK, 512, now);
+    } else if (!leader && wheel != null) {
+      wheel = null; // lost the lease, the new leader releases what we loaded
+      loaded.clear();
+    }
+    this.leader = leader;
+    return leader;
+  }
+
+  /**
+   * Loads the payloads due within the horizon into the wheel.
+   *
+   * @param now the current time in milliseconds.
+   */
+  private void scan(long now) {
+    try (MongoCursor<Document> cursor = scheduled.find(Filters.lte(DELIVER_AT, new Date(now + HORIZON)))
+      .projection(Projections.include(DELIVER_AT))
+      .sort(Sorts.ascending(DELIVER_AT))
+      .limit(SCAN_LIMIT)
+      .iterator()) {
+      while (cursor.hasNext()) {
+        Document document = cursor.next();
+        Object id = document.get("_id");
+        if (loaded.add(id))
+          wheel.add(document.getDate(DELIVER_AT).getTime(), id);
+      }
+    }
+  }
+
+  /**
+   * Publishes the due payloads through the stamping path of the client, and removes their schedules.
+   */
+  private void release() {
+    Map<Durability, List<Document>> tiers = new EnumMap<>(Durability.class);
+    int released = 0;
+    for (Document document : scheduled.find(Filters.in("_id", due))) {
+      document.remove(DELIVER_AT);
+      Durability tier = durability(document.remove(DURABILITY));
+      String target = document.getString("payload:target");
+      tiers.computeIfAbsent(tier, t -> new ArrayList<>())
+        .add(client.stamp(target, document, client.tracer().sample()));
+      released++;
+    }
+
+    for (Map.Entry<Durability, List<Document>> entry : tiers.entrySet()) {
+      WriteConcern writeConcern = entry.getKey().writeConcern();
+      insert(writeConcern == null ? publishers : publishers.withWriteConcern(writeConcern), entry.getValue());
+    }
+
+    if (released > 0) {
+      scheduled.deleteMany(Filters.in("_id", due));
+      metrics.add(Metric.RELEASED, released);
+    }
+
+    loaded.removeAll(due);
+    due.clear();
+  }
+
+  /**
+   * Inserts released payloads, skipping those released before by a previous leader.
+   *
+   * @param collection the publishers collection, with the write concern of the payloads.
+   * @param documents the stamped payloads.
+   */
+  private void insert(MongoCollection<Document> collection, List<Document> documents) {
+    try {
+      collection.insertMany(documents, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      for (BulkWriteError error : e.getWriteErrors()) {
+        if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+          documents.forEach(client.tracer()::discard);
+          throw e; // retried from the next scan
+        }
+      }
+      // released before by a previous leader
+    }
+    documents.forEach(client.tracer()::acknowledged);
+  }
+
+  /**
+   * Gets the durability tier stored with a scheduled payload.
+   *
+   * @param name the name of the tier, or null for payloads scheduled before tiers were stored.
+   * @return the durability tier.
+   */
+  private Durability durability(Object name) {
+    if (!(name instanceof String))
+      return Durability.DEFAULT;
+    try {
+      return Durability.valueOf((String) name);
+    } catch (IllegalArgumentException e) {
+      return Durability.DEFAULT;
+    }
+  }
+
+  /**
+   * Creates the scheduled indexes, once the scheduler is first used.
+   */
+  private synchronized void ensureIndexes() {
+    if (indexed)
+      return;
+
+    indexed = true;
+    scheduled.createIndex(Indexes.ascending(DELIVER_AT));
+  }
+
+  /**
+   * Stops releasing scheduled payloads, and hands the lease over to the other nodes.
+   */
+  @Override
+  public void close() {
+    running = false;
+    if (thread == null)
+      return;
+
+    thread.interrupt();
+    try {
+      thread.join(1_000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      leases.deleteOne(Filters.and(Filters.eq("_id", LEASE), Filters.eq("owner", nodeId)));
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+}
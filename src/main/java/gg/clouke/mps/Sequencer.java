@@ -0,0 +1,321 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Restores the publishing order of payloads, and detects payloads which went missing.
+ *
+ * <p>Each client stamps its payloads with its publisher id and a sequence number per target.
+ * The sequencer tracks the next expected number of every publisher & target. Payloads arriving
+ * ahead of it are held in a small reorder buffer, until the missing payloads arrive or the
+ * bounded wait elapses. A gap that cannot be filled is reported to the {@link GapListener},
+ * and delivery continues after it. Payloads arriving behind the expected number, such as
+ * payloads that were given up on or replayed duplicates, are dropped.
+ *
+ * <p>Payloads are delivered by the dispatch thread which accepted them, after the sequence is
+ * unlocked. When the wait for a gap elapses, the timer only gives up on the gap, and hands the
+ * payloads following it back to the dispatch thread of their target, so subscribers are never
+ * called from the timer or with a lock of the sequencer held.
+ *
+ * <p>The first payload received from a publisher sets its starting point, and publishers
+ * which have been idle for 10 minutes are forgotten.
+ *
+ * @author Clouke
+ * @since 19.10.2026 20:11
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class Sequencer implements Closeable {
+
+  /**
+   * The field holding the id of the publisher of a payload.
+   */
+  static final String PUBLISHER = "payload:publisher";
+
+  /**
+   * The field holding the sequence number of a payload, per publisher & target.
+   */
+  static final String SEQUENCE = "payload:seq";
+
+  /**
+   * Shared by the sequencers of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("Sequencer-%d")
+    .setDaemon(true)
+    .build();
+
+  private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toNanos(10L);
+
+  private final Map<String, Sequence> sequences = new ConcurrentHashMap<>();
+  private final BiConsumer<String, Document> delivery;
+  private final BiConsumer<String, Runnable> handBack;
+  private final Metrics metrics;
+  private final int capacity;
+  private final long maxWait;
+  private final ScheduledExecutorService timer;
+  private volatile GapListener listener;
+
+  /**
+   * Constructs a new sequencer.
+   *
+   * @param delivery delivers the payloads in order, by target.
+   * @param handBack runs a task on the dispatch thread of a target.
+   * @param metrics the metrics to count gaps to.
+   * @param capacity the maximum amount of payloads held per publisher & target.
+   * @param maxWait the maximum time in milliseconds to wait for a missing payload.
+   */
+  Sequencer(BiConsumer<String, Document> delivery, BiConsumer<String, Runnable> handBack,
+            Metrics metrics, int capacity, long maxWait) {
+    this.delivery = delivery;
+    this.handBack = handBack;
+    this.metrics = metrics;
+    this.capacity = capacity;
+    this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+    this.timer = Executors.newSingleThreadScheduledExecutor(FACTORY);
+    long period = Math.max(1L, maxWait / 2L);
+    timer.scheduleWithFixedDelay(this::tick, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sets the listener notified of gaps which could not be filled.
+   *
+   * @param listener the gap listener, or null to remove it.
+   */
+  void listener(GapListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Accepts a payload, delivering it once every payload before it was delivered or given up on.
+   * Payloads without a sequence number are delivered immediately.
+   *
+   * @param target the target of the payload.
+   * @param document the payload.
+   */
+  void accept(String target, Document document) {
+    String publisher = document.getString(PUBLISHER);
+    Object sequence = document.get(SEQUENCE);
+    if (publisher == null || !(sequence instanceof Number)) {
+      delivery.accept(target, document);
+      return;
+    }
+
+    Sequence order = sequences.computeIfAbsent(publisher + '\u0000' + target, key -> new Sequence(publisher, target));
+    order.accept(((Number) sequence).longValue(), document);
+    order.deliverReady();
+  }
+
+  /**
+   * Gives up on the gaps which exceeded the maximum wait, handing the payloads following them
+   * back to the dispatch threads, and forgets idle publishers.
+   */
+  private void tick() {
+    long now = System.nanoTime();
+    sequences.forEach((key, sequence) -> {
+      try {
+        int expiry = sequence.expire(now);
+        if (expiry == Sequence.IDLE) {
+          sequences.remove(key, sequence);
+        } else if (expiry == Sequence.RELEASED) {
+          handBack.accept(sequence.target, sequence::resume);
+        }
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    });
+  }
+
+  /**
+   * Reports a gap to the metrics & gap listener.
+   *
+   * @param sequence the sequence with the gap.
+   * @param from the first missing sequence number.
+   * @param to the last missing sequence number, inclusive.
+   */
+  private void gap(Sequence sequence, long from, long to) {
+    metrics.increment(Metric.SEQUENCE_GAPS);
+    metrics.add(Metric.MISSED_PAYLOADS, to - from + 1L);
+    GapListener listener = this.listener;
+    if (listener == null)
+      return;
+
+    try {
+      listener.onGap(sequence.publisher, sequence.target, from, to);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Stops the timer, and delivers the payloads still held, giving up on their gaps.
+   */
+  @Override
+  public void close() {
+    timer.shutdownNow();
+    sequences.values().forEach(sequence -> {
+      sequence.flush();
+      sequence.deliverReady();
+    });
+    sequences.clear();
+  }
+
+  /**
+   * The order of the payloads of one publisher on one target.
+   */
+  private final class Sequence {
+    private static final int WAITING = 0;
+    private static final int RELEASED = 1;
+    private static final int IDLE = 2;
+
+    private final String publisher;
+    private final String target;
+    private final TreeMap<Long, Document> pending = new TreeMap<>();
+    private final ArrayDeque<Document> ready = new ArrayDeque<>();
+    private long expected = -1L;
+    private long waitingSince;
+    private long lastSeen;
+    private boolean draining;
+    private boolean handedBack;
+
+    private Sequence(String publisher, String target) {
+      this.publisher = publisher;
+      this.target = target;
+    }
+
+    private synchronized void accept(long sequence, Document document) {
+      lastSeen = System.nanoTime();
+      if (expected == -1L || sequence == expected) {
+        release(sequence, document);
+        drain();
+        return;
+      }
+
+      if (sequence < expected) {
+        metrics.increment(Metric.STALE_PAYLOADS);
+        return;
+      }
+
+      if (pending.isEmpty())
+        waitingSince = lastSeen;
+      pending.put(sequence, document);
+      if (pending.size() > capacity)
+        skip();
+    }
+
+    /**
+     * Gives up on the current gap if it exceeded the maximum wait, called by the timer.
+     *
+     * @param now the current time in nanoseconds.
+     * @return {@link #RELEASED} if payloads are ready to be handed back to the dispatch thread,
+     * {@link #IDLE} if the sequence can be forgotten, {@link #WAITING} otherwise.
+     */
+    private synchronized int expire(long now) {
+      if (!pending.isEmpty() && now - waitingSince >= maxWait)
+        skip();
+      if (!ready.isEmpty() && !draining && !handedBack) {
+        handedBack = true;
+        return RELEASED;
+      }
+      return pending.isEmpty() && ready.isEmpty() && !draining && now - lastSeen >= IDLE_TIMEOUT
+        ? IDLE
+        : WAITING;
+    }
+
+    private synchronized void flush() {
+      while (!pending.isEmpty()) {
+        skip();
+      }
+    }
+
+    /**
+     * Delivers the payloads released by the timer, run on the dispatch thread of the target.
+     */
+    private void resume() {
+      synchronized (this) {
+        handedBack = false;
+      }
+      deliverReady();
+    }
+
+    /**
+     * Gives up on the current gap, and releases the payloads following it.
+     */
+    private void skip() {
+      long first = pending.firstKey();
+      gap(this, expected, first - 1L);
+      expected = first;
+      drain();
+    }
+
+    /**
+     * Releases the held payloads which are next in order.
+     */
+    private void drain() {
+      boolean progressed = false;
+      Map.Entry<Long, Document> entry;
+      while ((entry = pending.firstEntry()) != null && entry.getKey() == expected) {
+        pending.pollFirstEntry();
+        metrics.increment(Metric.REORDERED);
+        release(entry.getKey(), entry.getValue());
+        progressed = true;
+      }
+      if (progressed && !pending.isEmpty())
+        waitingSince = System.nanoTime(); // waiting for the next gap
+    }
+
+    private void release(long sequence, Document document) {
+      expected = sequence + 1L;
+      ready.addLast(document);
+    }
+
+    /**
+     * Delivers the released payloads in order, without holding the lock of the sequence.
+     * If another thread is already delivering them, it also delivers the payloads released
+     * by this thread, so the payloads of a sequence are never delivered concurrently.
+     */
+    private void deliverReady() {
+      synchronized (this) {
+        if (draining || ready.isEmpty())
+          return;
+        draining = true;
+      }
+
+      boolean drained = false;
+      try {
+        while (true) {
+          Document document;
+          synchronized (this) {
+            document = ready.pollFirst();
+            if (document == null) {
+              draining = false;
+              drained = true;
+              return;
+            }
+          }
+          delivery.accept(target, document);
+        }
+      } finally {
+        if (!drained) {
+          synchronized (this) {
+            draining = false; // let the next thread carry on after a failed delivery
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,48 @@
+package gg.clouke.mps;
+
+/**
+ * Represents a stage in the lifecycle of a traced payload, in the order they are passed.
+ *
+ * @author Clouke
+ * @since 19.10.2026 22:52
+ * © mongo-pubsub - All Rights Reserved
+ */
+public enum Stage {
+
+  /**
+   * The payload entered enqueue on the publishing node.
+   */
+  ENQUEUED,
+
+  /**
+   * The payload was encoded to its document on the publishing node.
+   */
+  ENCODED,
+
+  /**
+   * The insert of the payload was acknowledged on the publishing node,
+   * only recorded in the trace of the publishing node.
+   */
+  ACKNOWLEDGED,
+
+  /**
+   * The change event of the payload was received by the watcher of the receiving node.
+   */
+  RECEIVED,
+
+  /**
+   * The payload was decoded for its subscriber on the receiving node.
+   */
+  DECODED,
+
+  /**
+   * The subscriber was called on the receiving node.
+   */
+  HANDLER_STARTED,
+
+  /**
+   * The subscriber returned or threw on the receiving node.
+   */
+  HANDLER_ENDED
+
+}
@@ -0,0 +1,72 @@
+package gg.clouke.mps;
+
+import gg.acai.acava.annotated.RequiredAnnotation;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ *  A subscriber which receives blobs published with {@link MongoPubSubClient#enqueueStream(String, InputStream, Payload)}.
+ *  The blob is read chunk by chunk as it arrives, so it is never held in heap as a whole.
+ * </p>
+ *
+ * <pre>
+ *  Create a subscriber class and annotate it with {@link Identifier}:
+ *   {@code
+ *    @Identifier("map-sync")
+ *    public class MapSubscriber implements StreamSubscriber {
+ *      public void onStream(Payload descriptor, InputStream in) throws IOException {
+ *        Files.copy(in, Paths.get(descriptor.getRawValue("map")));
+ *      }
+ *    }
+ *  }
+ *
+ * <strong>Supports</strong> functional implementations:
+ *    {@code
+ *      client.streams()
+ *        .listenDirectly("map-sync",
+ *          (descriptor, in) -> Files.copy(in, Paths.get(descriptor.getRawValue("map"))));
+ *   }
+ * </pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 19:21
+ * © mongo-pubsub - All Rights Reserved
+ */
+@FunctionalInterface
+@RequiredAnnotation(Identifier.class)
+public interface StreamSubscriber {
+
+  /**
+   * Called on a stream reader thread when a blob is published
+   * with the same identifier as this subscriber.
+   *
+   * <p>The stream blocks until the next chunk arrives, and is closed once this method returns.
+   *
+   * @param descriptor the descriptor payload published along with the blob
+   * @param in the stream reading the chunks of the blob
+   * @throws IOException if the blob could not be read, or its publisher failed
+   */
+  void onStream(Payload descriptor, InputStream in) throws IOException;
+
+  /**
+   * <p>Gets the identifier of this subscriber.</p>
+   *
+   * <strong>NOTE:</strong> If the subscriber is
+   * a functional implementation, this method must be overridden.
+   *
+   * @throws RuntimeException if the subscriber class is missing the {@link Identifier} annotation and has no overridden implementation of this method.
+   * @return the identifier of this subscriber
+   */
+  default String getIdentifier() {
+    Class<?> clazz = getClass();
+    if (clazz.isAnnotationPresent(Identifier.class))
+      return clazz
+              .getAnnotation(Identifier.class)
+              .value();
+
+    throw new RuntimeException("Subscriber class " + clazz.getName() + " is missing @Identifier annotation");
+  }
+
+}
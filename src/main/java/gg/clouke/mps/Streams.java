@@ -0,0 +1,315 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.stats.Metric;
+import gg.clouke.mps.stats.Metrics;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams blobs exceeding the 16MB document limit of a payload.
+ *
+ * <p>The blob is written in chunks to its own collection, while a small descriptor payload is
+ * published to the target as usual. Subscribers receive an {@link InputStream} reading the chunks
+ * as they are written, on a stream reader thread, so neither side holds the blob in heap as a whole.
+ *
+ * <p>Chunks expire after the stream retention configured through
+ * {@link MongoClientBuilder#streamChunks(int, long, TimeUnit)}. A reader gives up when no chunk
+ * arrived for 30 seconds, and descriptors of streams which failed to be read are moved to the
+ * dead-letter collection.
+ *
+ * <p><b>Example usage:</b></p>
+ * <pre>{@code
+ * client.streams()
+ *   .listenDirectly("map-sync", (descriptor, in) ->
+ *     Files.copy(in, Paths.get(descriptor.getRawValue("map"))));
+ *
+ * try (InputStream in = Files.newInputStream(Paths.get("dust.zip"))) {
+ *   client.enqueueStream("map-sync", in, Payload.empty()
+ *     .withRawParameter("map", "dust.zip"));
+ * }
+ * }</pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 19:36
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class Streams implements Closeable {
+
+  /**
+   * The field of a descriptor payload holding the id of its stream.
+   */
+  public static final String FIELD = "payload:stream";
+
+  /**
+   * Shared by the streams of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("StreamReader-%d")
+    .setDaemon(true)
+    .build();
+
+  private static final long STALL_TIMEOUT = 30_000L;
+
+  private final MongoCollection<Document> chunks;
+  private final DeadLetters deadLetters;
+  private final Metrics metrics;
+  private final Map<String, StreamSubscriber> subscribers = new ConcurrentHashMap<>();
+  private final int chunkSize;
+  private final long retention;
+  private ExecutorService readers;
+  private boolean indexed;
+  private boolean closed;
+
+  /**
+   * Constructs a new stream store.
+   *
+   * @param client the client owning the streams.
+   * @param chunks the collection holding the chunks.
+   * @param deadLetters the dead-letter store of the client.
+   * @param b the builder to configure the streams.
+   */
+  Streams(MongoPubSubClient client, MongoCollection<Document> chunks, DeadLetters deadLetters, MongoClientBuilder b) {
+    this.chunks = chunks;
+    this.deadLetters = deadLetters;
+    this.metrics = client.metrics();
+    this.chunkSize = Math.max(1, b.streamChunkSize);
+    this.retention = b.streamRetentionUnit.toSeconds(b.streamRetention);
+  }
+
+  /**
+   * Registers a new stream subscriber.
+   *
+   * @param subscriber the subscriber to register, identified by its {@link Identifier}.
+   */
+  public void addListener(StreamSubscriber subscriber) {
+    listenDirectly(subscriber.getIdentifier(), subscriber);
+  }
+
+  /**
+   * Allows functional stream subscribers to be added.
+   *
+   * @param identifier the identifier of the subscriber.
+   * @param subscriber the subscriber.
+   */
+  public void listenDirectly(String identifier, StreamSubscriber subscriber) {
+    ensureIndexes();
+    subscribers.put(identifier, subscriber);
+  }
+
+  /**
+   * Checks whether a stream subscriber is registered for the given identifier.
+   *
+   * @param identifier the identifier of the subscriber.
+   * @return true if a subscriber is registered, false otherwise.
+   */
+  public boolean isListening(String identifier) {
+    return subscribers.containsKey(identifier);
+  }
+
+  /**
+   * Gets an immutable map of all stream subscribers.
+   *
+   * @return an immutable map of all stream subscribers.
+   */
+  @Nonnull
+  public Map<String, StreamSubscriber> getSubscribers() {
+    return Collections.unmodifiableMap(subscribers);
+  }
+
+  /**
+   * Gets the collection holding the chunks.
+   *
+   * @return the chunk collection.
+   */
+  @Nonnull
+  public MongoCollection<Document> chunks() {
+    return chunks;
+  }
+
+  /**
+   * Writes the blob read from the input stream as the chunks of the given stream, terminated
+   * by a last chunk. If reading or writing fails, the stream is terminated with the error instead.
+   *
+   * @param stream the id of the stream.
+   * @param in the input stream to read the blob from.
+   * @return the size of the blob in bytes.
+   * @throws IOException if reading the blob failed.
+   */
+  long write(ObjectId stream, InputStream in) throws IOException {
+    ensureIndexes();
+    byte[] buffer = new byte[chunkSize];
+    long size = 0L;
+    int n = 0;
+    try {
+      int read;
+      do {
+        read = fill(in, buffer);
+        if (read > 0) {
+          // the buffer is encoded before insertOne returns, so it can be reused for the next chunk
+          chunks.insertOne(chunk(stream, n++)
+            .append("data", new Binary(read == buffer.length ? buffer : Arrays.copyOf(buffer, read))));
+          size += read;
+        }
+      } while (read == buffer.length);
+
+      chunks.insertOne(chunk(stream, n).append("last", true));
+      return size;
+    } catch (IOException | RuntimeException e) {
+      try {
+        chunks.insertOne(chunk(stream, n).append("error", String.valueOf(e)));
+      } catch (RuntimeException ignored) {
+        // readers give up after the stall timeout
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Hands a descriptor over to a stream reader thread, which feeds the stream to its subscriber.
+   *
+   * @param target the target of the descriptor.
+   * @param document the descriptor.
+   */
+  void deliver(String target, Document document) {
+    StreamSubscriber subscriber = subscribers.get(target);
+    ObjectId stream = document.getObjectId(FIELD);
+    try {
+      readers().execute(() -> read(target, subscriber, stream, document));
+    } catch (RejectedExecutionException e) {
+      deadLetters.store(target, document, 1, e);
+    }
+  }
+
+  /**
+   * Feeds a stream to its subscriber, dead-lettering the descriptor if it fails.
+   *
+   * @param target the target of the descriptor.
+   * @param subscriber the subscriber of the target.
+   * @param stream the id of the stream.
+   * @param document the descriptor.
+   */
+  private void read(String target, StreamSubscriber subscriber, ObjectId stream, Document document) {
+    try (InputStream in = new ChunkInputStream(chunks, stream, STALL_TIMEOUT)) {
+      subscriber.onStream(Payload.fromDocument(document), in);
+    } catch (IOException | RuntimeException e) {
+      metrics.increment(Metric.FAILED_ATTEMPTS);
+      deadLetters.store(target, document, 1, e);
+    }
+  }
+
+  /**
+   * Creates a chunk of a stream.
+   *
+   * @param stream the id of the stream.
+   * @param n the number of the chunk, starting at 0.
+   * @return the chunk, without data.
+   */
+  private static Document chunk(ObjectId stream, int n) {
+    return new Document("stream", stream)
+      .append("n", n)
+      .append("time", new Date());
+  }
+
+  /**
+   * Reads from the input stream until the buffer is full or the input stream ended.
+   *
+   * @param in the input stream.
+   * @param buffer the buffer to fill.
+   * @return the amount of bytes read.
+   * @throws IOException if reading failed.
+   */
+  private static int fill(InputStream in, byte[] buffer) throws IOException {
+    int filled = 0;
+    while (filled < buffer.length) {
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if (read == -1)
+        break;
+      filled += read;
+    }
+    return filled;
+  }
+
+  /**
+   * Creates the chunk indexes, once the streams are first used.
+   */
+  private synchronized void ensureIndexes() {
+    if (indexed)
+      return;
+
+    indexed = true;
+    chunks.createIndex(Indexes.ascending("stream", "n"), new IndexOptions().unique(true));
+    chunks.createIndex(Indexes.ascending("time"), new IndexOptions()
+      .expireAfter(retention, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Gets the stream reader executor, creating it on the first stream.
+   *
+   * @return the stream reader executor.
+   * @throws RejectedExecutionException if the streams are closed.
+   */
+  private synchronized ExecutorService readers() {
+    if (closed)
+      throw new RejectedExecutionException("Streams are closed.");
+    if (readers == null)
+      readers = Executors.newCachedThreadPool(FACTORY);
+    return readers;
+  }
+
+  /**
+   * Stops accepting streams, and waits for the streams being read to complete.
+   * Readers still running after the timeout are interrupted.
+   *
+   * @param timeout the maximum time to wait for the readers.
+   * @param unit the unit of the timeout.
+   * @return true if all readers completed in time, false otherwise.
+   */
+  boolean close(long timeout, TimeUnit unit) {
+    ExecutorService readers;
+    synchronized (this) {
+      closed = true;
+      readers = this.readers;
+    }
+    if (readers == null)
+      return true;
+
+    readers.shutdown();
+    try {
+      if (readers.awaitTermination(timeout, unit))
+        return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    readers.shutdownNow();
+    return false;
+  }
+
+  /**
+   * Closes the streams, interrupting the streams being read.
+   */
+  @Override
+  public void close() {
+    close(0L, TimeUnit.MILLISECONDS);
+  }
+
+}
@@ -1,8 +1,17 @@
 package gg.clouke.mps;
 
+import gg.clouke.mps.codec.MessageCodec;
+import org.bson.Document;
+
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A house-holding class for all subscribers.
@@ -10,10 +19,8 @@ import java.util.Map;
  * <p>Responsible for holding all subscribers and
  * internally dispatching messages to them.
  *
- * <p>Holds an instance of the {@link Subscribers} class, which can be accessed
- * through the {@link #getInstance()} method.
- *
- * <p><strong>NOTE:</strong> cannot be instantiated multiple times.
+ * <p>Each {@link MongoPubSubClient} holds its own instance, accessible
+ * through {@link MongoPubSubClient#subscribers()}.
  *
  * <p><b>Example usage:</b></p>
  * <h4>- Functional listener:
@@ -32,6 +39,20 @@ import java.util.Map;
  * Subscribers subscribers = new Subscribers();
  * subscribers.addListener(new MyTestSub());
  * }</pre>
+ * <h4>- Typed listener:
+ * <pre>{@code
+ * Subscribers subscribers = new Subscribers();
+ * subscribers.listenTyped("match-start", MatchStart.class,
+ *   message -> System.out.println(message.getId()));
+ * }</pre>
+ * <h4>- Batch listener:
+ * <pre>{@code
+ * Subscribers subscribers = new Subscribers();
+ * subscribers.listenBatched("telemetry", 500, 20L, TimeUnit.MILLISECONDS,
+ *   payloads -> repository.insertAll(payloads));
+ * }</pre>
+ *
+ * <p>Only one subscriber, typed, batched or not, can be registered per identifier.
  *
  * @author Clouke
  * @since 25.02.2023 10:43
@@ -39,28 +60,44 @@ import java.util.Map;
  */
 public final class Subscribers {
 
-  private static Subscribers INSTANCE;
+  private static volatile Subscribers INSTANCE;
   private final Map<String, Subscriber> subscribers;
+  private final Map<String, Binding<?>> typed;
+  private final Map<String, Batched> batched;
+  private final PayloadPool pool;
+  private final Tracer tracer;
 
   /**
-   * Gets the instance of the {@link Subscribers} class.
+   * Gets the most recently created instance of the {@link Subscribers} class.
    *
-   * @return the instance of this class
+   * @return the most recently created instance
+   * @deprecated subscribers are scoped to their client, use {@link MongoPubSubClient#subscribers()} instead.
    */
+  @Deprecated
   public static Subscribers getInstance() {
     return INSTANCE;
   }
 
   /**
    * Constructs a new instance of the {@link Subscribers} class.
-   *
-   * @throws IllegalStateException if the instance is already initialized.
    */
   public Subscribers() {
-    if (INSTANCE != null)
-      throw new IllegalStateException("Subscribers instance already exists.");
+    this(null, new Tracer(null, 0, null));
+  }
+
+  /**
+   * Constructs a new instance of the {@link Subscribers} class.
+   *
+   * @param pool the pool recycling delivered payloads, or null to allocate a payload per delivery.
+   * @param tracer the tracer recording the delivery stages of traced payloads.
+   */
+  Subscribers(PayloadPool pool, Tracer tracer) {
+    this.subscribers = new ConcurrentHashMap<>();
+    this.typed = new ConcurrentHashMap<>();
+    this.batched = new ConcurrentHashMap<>();
+    this.pool = pool;
+    this.tracer = tracer;
     INSTANCE = this;
-    this.subscribers = new HashMap<>();
   }
 
   /**
@@ -69,7 +106,7 @@ public final class Subscribers {
    * @param subscriber the listener to register.
    */
   public void addListener(Subscriber subscriber) {
-    subscribers.put(subscriber.getIdentifier(), subscriber);
+    listenDirectly(subscriber.getIdentifier(), subscriber);
   }
 
   /**
@@ -80,6 +117,124 @@ public final class Subscribers {
    */
   public void listenDirectly(String identifier, Subscriber subscriber) {
     subscribers.put(identifier, subscriber);
+    typed.remove(identifier);
+    batched.remove(identifier);
+  }
+
+  /**
+   * Registers a functional direct listener, unless a subscriber is registered to the identifier already.
+   *
+   * @param identifier the identifier of the listener
+   * @param subscriber the listener
+   * @return true if the listener was registered, false if the identifier is taken
+   */
+  boolean listenIfAbsent(String identifier, Subscriber subscriber) {
+    if (typed.containsKey(identifier) || batched.containsKey(identifier))
+      return false;
+    return subscribers.putIfAbsent(identifier, subscriber) == null;
+  }
+
+  /**
+   * Registers a new typed listener to the subscribers.
+   * The deserializer of its message type is resolved once, at registration.
+   *
+   * @param subscriber the typed listener to register.
+   * @param <T> the message type of the listener.
+   */
+  public <T> void addTypedListener(TypedSubscriber<T> subscriber) {
+    listenTyped(subscriber.getIdentifier(), subscriber.getMessageType(), subscriber);
+  }
+
+  /**
+   * Allows functional typed listeners to be added to the subscribers.
+   *
+   * @param identifier the identifier of the listener
+   * @param type the message type of the listener
+   * @param subscriber the listener
+   * @param <T> the message type of the listener
+   */
+  public <T> void listenTyped(String identifier, Class<T> type, TypedSubscriber<T> subscriber) {
+    typed.put(identifier, new Binding<>(subscriber, MessageCodec.of(type)));
+    subscribers.remove(identifier);
+    batched.remove(identifier);
+  }
+
+  /**
+   * Registers a new batch listener to the subscribers.
+   *
+   * @param subscriber the batch listener to register.
+   * @param maxSize the maximum amount of payloads per batch.
+   * @param linger the maximum time the first payload of a batch waits for the batch to fill up.
+   * @param unit the unit of the linger parameter.
+   */
+  public void addBatchListener(BatchSubscriber subscriber, int maxSize, long linger, TimeUnit unit) {
+    listenBatched(subscriber.getIdentifier(), maxSize, linger, unit, subscriber);
+  }
+
+  /**
+   * Allows functional batch listeners to be added to the subscribers. A batch is delivered once
+   * the change stream has no more payloads at hand, once it is full, or once its linger time elapsed.
+   *
+   * @param identifier the identifier of the listener
+   * @param maxSize the maximum amount of payloads per batch
+   * @param linger the maximum time the first payload of a batch waits for the batch to fill up
+   * @param unit the unit of the linger parameter
+   * @param subscriber the listener
+   */
+  public void listenBatched(String identifier, int maxSize, long linger, TimeUnit unit, BatchSubscriber subscriber) {
+    batched.put(identifier, new Batched(subscriber, Math.max(1, maxSize), unit.toMillis(linger)));
+    subscribers.remove(identifier);
+    typed.remove(identifier);
+  }
+
+  /**
+   * Removes the subscriber registered to the identifier, typed or not.
+   *
+   * @param identifier the identifier of the subscriber
+   * @return true if a subscriber was removed, false otherwise
+   */
+  public boolean removeListener(String identifier) {
+    boolean removed = subscribers.remove(identifier) != null;
+    removed |= batched.remove(identifier) != null;
+    return typed.remove(identifier) != null || removed;
+  }
+
+  /**
+   * Internal dispatching of documents to subscribers, decoding the document
+   * for the subscriber registered to the identifier. The delivery stages of
+   * traced documents are recorded, once for their first attempt.
+   *
+   * @param identifier the identifier of the subscriber
+   * @param document the document to dispatch
+   * @throws RuntimeException if the subscriber does not exist
+   */
+  void dispatch(String identifier, Document document) {
+    Trace trace = tracer.resume(identifier, document);
+    Binding<?> binding = typed.get(identifier);
+    if (binding != null) {
+      binding.deliver(document, tracer, trace);
+      return;
+    }
+
+    Payload payload = payload(document);
+    tracer.stamp(trace, Stage.DECODED);
+    tracer.stamp(trace, Stage.HANDLER_STARTED);
+    try {
+      dispatch(identifier, payload);
+    } finally {
+      tracer.stamp(trace, Stage.HANDLER_ENDED);
+      tracer.complete(trace);
+    }
+  }
+
+  /**
+   * Reads a document into a payload, taken from the pool when pooling is enabled.
+   *
+   * @param document the document to read
+   * @return the payload
+   */
+  Payload payload(Document document) {
+    return pool != null ? pool.acquire(document) : Payload.fromDocument(document);
   }
 
   /**
@@ -98,6 +253,68 @@ public final class Subscribers {
     throw new RuntimeException("Attempted to dispatch message to non-existent subscriber " + identifier + " with payload " + payload);
   }
 
+  /**
+   * Internal dispatching of a batch of documents to the batch subscriber registered to the identifier.
+   * The delivery stages of traced documents are recorded, once for their first attempt.
+   *
+   * @param identifier the identifier of the subscriber
+   * @param documents the documents to dispatch, in the order they were received
+   * @throws RuntimeException if the batch subscriber does not exist
+   */
+  void dispatchBatch(String identifier, List<Document> documents) {
+    Batched batched = this.batched.get(identifier);
+    if (batched == null)
+      throw new RuntimeException("Attempted to dispatch a batch of " + documents.size() + " payloads to non-existent batch subscriber " + identifier);
+
+    List<Trace> traces = null;
+    List<Payload> payloads = new ArrayList<>(documents.size());
+    for (Document document : documents) {
+      Trace trace = tracer.resume(identifier, document);
+      payloads.add(payload(document));
+      if (trace != null) {
+        tracer.stamp(trace, Stage.DECODED);
+        if (traces == null)
+          traces = new ArrayList<>();
+        traces.add(trace);
+      }
+    }
+
+    if (traces == null) {
+      batched.subscriber.onMessages(payloads);
+      return;
+    }
+
+    traces.forEach(trace -> tracer.stamp(trace, Stage.HANDLER_STARTED));
+    try {
+      batched.subscriber.onMessages(payloads);
+    } finally {
+      for (Trace trace : traces) {
+        tracer.stamp(trace, Stage.HANDLER_ENDED);
+        tracer.complete(trace);
+      }
+    }
+  }
+
+  /**
+   * Gets the batch subscriber registered to the identifier, along with its batching limits.
+   *
+   * @param identifier the identifier of the subscriber
+   * @return the batch subscriber, or null if the identifier has none
+   */
+  Batched batched(String identifier) {
+    return batched.get(identifier);
+  }
+
+  /**
+   * Checks whether a subscriber is registered for the given identifier.
+   *
+   * @param identifier the identifier of the subscriber
+   * @return true if a subscriber is registered, false otherwise
+   */
+  public boolean isSubscribed(String identifier) {
+    return subscribers.containsKey(identifier) || typed.containsKey(identifier) || batched.containsKey(identifier);
+  }
+
   /**
    * Gets an immutable map of all subscribers.
    *
@@ -108,12 +325,86 @@ public final class Subscribers {
   }
 
   /**
-   * Gets the size of the subscribers map.
+   * Gets an immutable map of all typed subscribers.
+   *
+   * @return an immutable map of all typed subscribers
+   */
+  public Map<String, TypedSubscriber<?>> getTypedSubscribers() {
+    Map<String, TypedSubscriber<?>> map = new HashMap<>();
+    typed.forEach((identifier, binding) -> map.put(identifier, binding.subscriber));
+    return Collections.unmodifiableMap(map);
+  }
+
+  /**
+   * Gets an immutable map of all batch subscribers.
+   *
+   * @return an immutable map of all batch subscribers
+   */
+  public Map<String, BatchSubscriber> getBatchSubscribers() {
+    Map<String, BatchSubscriber> map = new HashMap<>();
+    batched.forEach((identifier, batched) -> map.put(identifier, batched.subscriber));
+    return Collections.unmodifiableMap(map);
+  }
+
+  /**
+   * Gets a snapshot of the identifiers of all subscribers, including typed & batch subscribers.
+   *
+   * @return a new, mutable set of the identifiers
+   */
+  Set<String> identifiers() {
+    Set<String> identifiers = new HashSet<>(subscribers.keySet());
+    identifiers.addAll(typed.keySet());
+    identifiers.addAll(batched.keySet());
+    return identifiers;
+  }
+
+  /**
+   * Gets the size of the subscribers map, including typed & batch subscribers.
    *
    * @return the size of the subscribers map
    */
   public int size() {
-    return subscribers.size();
+    return subscribers.size() + typed.size() + batched.size();
+  }
+
+  /**
+   * A batch subscriber along with the limits of its batches.
+   */
+  static final class Batched {
+    private final BatchSubscriber subscriber;
+    final int maxSize;
+    final long linger;
+
+    private Batched(BatchSubscriber subscriber, int maxSize, long linger) {
+      this.subscriber = subscriber;
+      this.maxSize = maxSize;
+      this.linger = linger;
+    }
+  }
+
+  /**
+   * A typed subscriber bound to the precompiled codec of its message type.
+   */
+  private static final class Binding<T> {
+    private final TypedSubscriber<T> subscriber;
+    private final MessageCodec<T> codec;
+
+    private Binding(TypedSubscriber<T> subscriber, MessageCodec<T> codec) {
+      this.subscriber = subscriber;
+      this.codec = codec;
+    }
+
+    private void deliver(Document document, Tracer tracer, Trace trace) {
+      T message = codec.decode(document);
+      tracer.stamp(trace, Stage.DECODED);
+      tracer.stamp(trace, Stage.HANDLER_STARTED);
+      try {
+        subscriber.onMessage(message);
+      } finally {
+        tracer.stamp(trace, Stage.HANDLER_ENDED);
+        tracer.complete(trace);
+      }
+    }
   }
 
 }
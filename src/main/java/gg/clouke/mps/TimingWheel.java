@@ -0,0 +1,93 @@
+package gg.clouke.mps;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel, expiring any amount of timeouts with a single clock.
+ *
+ * <p>Time is split in ticks, and each timeout is hashed to the bucket of its tick. Advancing the
+ * wheel only visits the buckets of the ticks that passed, so adding and expiring a timeout is
+ * constant time no matter how many timeouts are held. Timeouts more than a revolution away stay
+ * in their bucket until their tick comes around.
+ *
+ * <p>Not thread-safe, the wheel is owned by a single thread.
+ *
+ * @author Clouke
+ * @since 19.10.2026 21:46
+ * © mongo-pubsub - All Rights Reserved
+ */
+final class TimingWheel<T> {
+
+  private final ArrayDeque<Timeout<T>>[] wheel;
+  private final int mask;
+  private final long tick;
+  private long current;
+
+  /**
+   * Constructs a new timing wheel.
+   *
+   * @param tick the duration of a tick in milliseconds.
+   * @param buckets the amount of buckets, rounded up to a power of two.
+   * @param now the current time in milliseconds.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  TimingWheel(long tick, int buckets, long now) {
+    int length = Integer.highestOneBit(Math.max(2, buckets - 1) << 1);
+    this.wheel = new ArrayDeque[length];
+    for (int i = 0; i < length; i++) {
+      wheel[i] = new ArrayDeque<>();
+    }
+    this.mask = length - 1;
+    this.tick = Math.max(1L, tick);
+    this.current = now / this.tick;
+  }
+
+  /**
+   * Adds a timeout to the wheel. Timeouts in the past expire on the next advance.
+   *
+   * @param deadline the time in milliseconds at which the timeout expires.
+   * @param item the item to expire.
+   */
+  void add(long deadline, T item) {
+    long ticks = Math.max(deadline / tick, current);
+    wheel[(int) (ticks & mask)].addLast(new Timeout<>(ticks, item));
+  }
+
+  /**
+   * Advances the wheel to the given time, expiring the timeouts of every tick that passed.
+   *
+   * @param now the current time in milliseconds.
+   * @param expired receives the items of the expired timeouts.
+   */
+  void advance(long now, Consumer<T> expired) {
+    long target = now / tick;
+    for (; current <= target; current++) {
+      ArrayDeque<Timeout<T>> bucket = wheel[(int) (current & mask)];
+      if (bucket.isEmpty())
+        continue;
+
+      Iterator<Timeout<T>> iterator = bucket.iterator();
+      while (iterator.hasNext()) {
+        Timeout<T> timeout = iterator.next();
+        if (timeout.tick <= current) {
+          iterator.remove();
+          expired.accept(timeout.item);
+        }
+      }
+    }
+    current = target; // the current tick may still receive timeouts
+  }
+
+  private static final class Timeout<T> {
+    private final long tick;
+    private final T item;
+
+    private Timeout(long tick, T item) {
+      this.tick = tick;
+      this.item = item;
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package gg.clouke.mps;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the times at which a sampled payload passed each {@link Stage} of its lifecycle.
+ *
+ * <p>The publishing node records the stages up to {@link Stage#ACKNOWLEDGED}, the receiving node
+ * records the stages from {@link Stage#RECEIVED} on, along with the publishing stages carried by
+ * the payload. Times are in microseconds since the epoch. They are monotonic within a node, but
+ * durations between stages of different nodes include the clock offset between them.
+ *
+ * @author Clouke
+ * @since 19.10.2026 22:57
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class Trace {
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private final String id;
+  private final String target;
+  private final String origin;
+  private final String node;
+  private final long[] times = new long[STAGES.length];
+
+  /**
+   * Constructs a new trace.
+   *
+   * @param id the id of the traced payload.
+   * @param target the target of the traced payload.
+   * @param origin the id of the node which published the payload.
+   * @param node the id of the node recording this trace.
+   */
+  Trace(String id, String target, String origin, String node) {
+    this.id = id;
+    this.target = target;
+    this.origin = origin;
+    this.node = node;
+  }
+
+  /**
+   * Records the time of a stage.
+   *
+   * @param stage the stage.
+   * @param time the time in microseconds since the epoch.
+   */
+  void record(Stage stage, long time) {
+    times[stage.ordinal()] = time;
+  }
+
+  /**
+   * Gets the id of the traced payload.
+   *
+   * @return the payload id.
+   */
+  @Nonnull
+  public String id() {
+    return id;
+  }
+
+  /**
+   * Gets the target of the traced payload.
+   *
+   * @return the target.
+   */
+  @Nonnull
+  public String target() {
+    return target;
+  }
+
+  /**
+   * Gets the id of the node which published the payload.
+   *
+   * @return the publishing node id.
+   */
+  @Nonnull
+  public String origin() {
+    return origin;
+  }
+
+  /**
+   * Gets the id of the node which recorded this trace.
+   *
+   * @return the recording node id.
+   */
+  @Nonnull
+  public String node() {
+    return node;
+  }
+
+  /**
+   * Gets the time at which the payload passed a stage.
+   *
+   * @param stage the stage.
+   * @return the time in microseconds since the epoch, or -1 if the stage was not recorded.
+   */
+  public long time(Stage stage) {
+    long time = times[stage.ordinal()];
+    return time == 0L ? -1L : time;
+  }
+
+  /**
+   * Gets the time the payload spent between two stages.
+   *
+   * @param from the earlier stage.
+   * @param to the later stage.
+   * @param unit the unit to get the duration in.
+   * @return the duration, or -1 if either stage was not recorded.
+   */
+  public long duration(Stage from, Stage to, TimeUnit unit) {
+    long start = time(from);
+    long end = time(to);
+    if (start == -1L || end == -1L)
+      return -1L;
+    return unit.convert(end - start, TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * Gets the trace as a string, with the time spent in each recorded stage.
+   *
+   * @return the string representation of the trace.
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("Trace{id=").append(id)
+      .append(", target=").append(target)
+      .append(", origin=").append(origin)
+      .append(", node=").append(node);
+    long previous = -1L;
+    for (Stage stage : STAGES) {
+      long time = time(stage);
+      if (time == -1L)
+        continue;
+      builder.append(", ").append(stage.name().toLowerCase());
+      if (previous != -1L)
+        builder.append("=+").append(time - previous).append("us");
+      previous = time;
+    }
+    return builder.append('}').toString();
+  }
+
+}
@@ -0,0 +1,33 @@
+package gg.clouke.mps;
+
+/**
+ * <p>
+ *  Receives the completed traces of a client, e.g. to export them to a tracing backend.
+ *  Sinks are called on the publishing & dispatching threads, and must not block.
+ * </p>
+ *
+ * <pre>
+ *  {@code
+ *    MongoPubSubClient.newBuilder()
+ *      .tracing(1000, trace -> {
+ *        if (trace.duration(Stage.ENQUEUED, Stage.HANDLER_ENDED, TimeUnit.MILLISECONDS) > 50L)
+ *          System.err.println("Slow payload: " + trace);
+ *      });
+ *  }
+ * </pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 22:54
+ * © mongo-pubsub - All Rights Reserved
+ */
+@FunctionalInterface
+public interface TraceSink {
+
+  /**
+   * Called when a trace is completed on this node.
+   *
+   * @param trace the completed trace
+   */
+  void accept(Trace trace);
+
+}
@@ -0,0 +1,260 @@
+package gg.clouke.mps;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traces the lifecycle of a sample of the payloads of a single client, each client has its own instance.
+ *
+ * <p>About one in every {@code sampleRate} enqueued payloads is traced. The publishing node
+ * stamps the times it enqueued & encoded the payload in the {@link #FIELD} of the payload, and
+ * completes its own trace once the insert is acknowledged. The receiving node adds the time the
+ * change event was received, and completes its trace once the subscriber returns. Both traces
+ * are passed to the {@link TraceSink} of their node.
+ *
+ * <p>Payloads which are not sampled only cost a random draw on enqueue, and a field lookup
+ * on insert & delivery.
+ *
+ * <p>Every publishing path discards the pending trace of a payload it fails to insert. Traces still
+ * pending after {@value #MAX_PENDING_AGE} seconds, e.g. of payloads buffered by a lane closed early,
+ * are evicted once the pending traces are full, so tracing never stops for good.
+ *
+ * @author Clouke
+ * @since 19.10.2026 23:08
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class Tracer {
+
+  /**
+   * The field holding the publishing stages of a traced payload.
+   */
+  public static final String FIELD = "payload:trace";
+
+  /**
+   * The maximum amount of traces awaiting their insert acknowledgement.
+   */
+  private static final int MAX_PENDING = 4096;
+
+  /**
+   * The time in seconds after which a pending trace may be evicted.
+   */
+  private static final long MAX_PENDING_AGE = 60L;
+
+  private final String nodeId;
+  private final int sampleRate;
+  private final TraceSink sink;
+  private final Map<Object, Trace> pending = new ConcurrentHashMap<>();
+  private final long baseMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  private final long baseNanos = System.nanoTime();
+
+  /**
+   * Constructs a new tracer.
+   *
+   * @param nodeId the id of the node of the client.
+   * @param sampleRate traces one in this many enqueued payloads, 0 or less disables sampling.
+   * @param sink the sink receiving the completed traces, or null to disable tracing.
+   */
+  Tracer(String nodeId, int sampleRate, @Nullable TraceSink sink) {
+    this.nodeId = nodeId;
+    this.sampleRate = sink != null ? sampleRate : 0;
+    this.sink = sink;
+  }
+
+  /**
+   * Gets the current time, in microseconds since the epoch. Backed by
+   * {@link System#nanoTime()}, so the times of a node never go backwards.
+   *
+   * @return the current time in microseconds.
+   */
+  long now() {
+    return baseMicros + (System.nanoTime() - baseNanos) / 1_000L;
+  }
+
+  /**
+   * Decides whether a payload entering enqueue is traced.
+   *
+   * @return the time the payload was enqueued if it is traced, 0 otherwise.
+   */
+  long sample() {
+    if (sampleRate <= 0 || ThreadLocalRandom.current().nextInt(sampleRate) != 0)
+      return 0L;
+    return now();
+  }
+
+  /**
+   * Stamps the publishing stages of a sampled payload, once it is encoded & ready to insert.
+   *
+   * @param enqueued the time the payload was enqueued, as returned by {@link #sample()}.
+   * @param target the target of the payload.
+   * @param document the encoded payload, stamped with its id.
+   */
+  void encoded(long enqueued, String target, Document document) {
+    long encoded = now();
+    Object id = document.get(Payload.ID);
+    document.append(FIELD, new Document("node", nodeId)
+      .append("enqueued", enqueued)
+      .append("encoded", encoded));
+    if (id == null || pending.size() >= MAX_PENDING && !evict(encoded))
+      return; // traced by the receiving node only
+
+    Trace trace = new Trace(idOf(id), target, nodeId, nodeId);
+    trace.record(Stage.ENQUEUED, enqueued);
+    trace.record(Stage.ENCODED, encoded);
+    pending.put(id, trace);
+  }
+
+  /**
+   * Completes the trace of a payload once its insert is acknowledged, if it is traced.
+   *
+   * @param document the inserted payload, decoded or raw.
+   */
+  void acknowledged(Map<String, ?> document) {
+    if (!document.containsKey(FIELD))
+      return;
+
+    Trace trace = pending.remove(keyOf(document.get(Payload.ID)));
+    if (trace != null) {
+      trace.record(Stage.ACKNOWLEDGED, now());
+      complete(trace);
+    }
+  }
+
+  /**
+   * Drops the trace of a payload which failed to insert, if it is traced.
+   *
+   * @param document the payload which failed to insert, decoded or raw.
+   */
+  void discard(Map<String, ?> document) {
+    if (document.containsKey(FIELD))
+      pending.remove(keyOf(document.get(Payload.ID)));
+  }
+
+  /**
+   * Stamps the time the change event of a traced payload was received.
+   *
+   * @param document the received payload.
+   */
+  void received(Document document) {
+    if (sink == null)
+      return;
+
+    Object field = document.get(FIELD);
+    if (field instanceof Document)
+      ((Document) field).append("received", now());
+  }
+
+  /**
+   * Removes the publishing stages from a received payload, and continues its trace on this node.
+   *
+   * @param target the target of the payload.
+   * @param document the payload about to be delivered.
+   * @return the trace of the payload, or null if it is not traced.
+   */
+  @Nullable
+  Trace resume(String target, Document document) {
+    Object field = document.remove(FIELD);
+    if (sink == null || !(field instanceof Document))
+      return null;
+
+    Document stages = (Document) field;
+    Trace trace = new Trace(idOf(document.get(Payload.ID)), target,
+      String.valueOf(stages.get("node")), nodeId);
+    record(trace, Stage.ENQUEUED, stages.get("enqueued"));
+    record(trace, Stage.ENCODED, stages.get("encoded"));
+    record(trace, Stage.RECEIVED, stages.get("received"));
+    return trace;
+  }
+
+  /**
+   * Stamps the current time of a stage.
+   *
+   * @param trace the trace, or null if the payload is not traced.
+   * @param stage the stage passed.
+   */
+  void stamp(@Nullable Trace trace, Stage stage) {
+    if (trace != null)
+      trace.record(stage, now());
+  }
+
+  /**
+   * Passes a completed trace to the sink.
+   *
+   * @param trace the trace, or null if the payload is not traced.
+   */
+  void complete(@Nullable Trace trace) {
+    if (trace == null)
+      return;
+
+    try {
+      sink.accept(trace);
+    } catch (RuntimeException e) {
+      e.printStackTrace(); // never fail a delivery over its trace
+    }
+  }
+
+  /**
+   * Gets the sink receiving the completed traces.
+   *
+   * @return the sink, or null if tracing is disabled.
+   */
+  @Nullable
+  public TraceSink sink() {
+    return sink;
+  }
+
+  /**
+   * Gets the traces held by the sink, oldest first.
+   *
+   * @return the held traces, or an empty list if the sink is not a {@link RingBufferTraceSink}.
+   */
+  @Nonnull
+  public List<Trace> dump() {
+    return sink instanceof RingBufferTraceSink
+      ? ((RingBufferTraceSink) sink).dump()
+      : Collections.emptyList();
+  }
+
+  /**
+   * Evicts the pending traces older than the maximum age.
+   *
+   * @param now the current time in microseconds.
+   * @return true if a trace can be added, false if the pending traces are still full.
+   */
+  private boolean evict(long now) {
+    long oldest = now - TimeUnit.SECONDS.toMicros(MAX_PENDING_AGE);
+    pending.values().removeIf(trace -> trace.time(Stage.ENCODED) < oldest);
+    return pending.size() < MAX_PENDING;
+  }
+
+  private static void record(Trace trace, Stage stage, Object time) {
+    if (time instanceof Long)
+      trace.record(stage, (Long) time);
+  }
+
+  /**
+   * Gets the key of a payload id in the pending traces, unwrapping the ids of raw documents.
+   */
+  private static Object keyOf(Object id) {
+    if (id instanceof BsonObjectId)
+      return ((BsonObjectId) id).getValue();
+    if (id instanceof BsonString)
+      return ((BsonString) id).getValue();
+    return id;
+  }
+
+  private static String idOf(Object id) {
+    return id instanceof ObjectId ? ((ObjectId) id).toHexString() : String.valueOf(id);
+  }
+
+}
@@ -0,0 +1,103 @@
+package gg.clouke.mps;
+
+import gg.acai.acava.annotated.RequiredAnnotation;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * <p>
+ *  A subscriber which receives its payloads as a typed message.
+ *  The message is mapped straight from the document by a deserializer resolved once at registration,
+ *  skipping the string map of {@link Payload}.
+ * </p>
+ *
+ * <pre>
+ *  Create a subscriber class and annotate it with {@link Identifier}, and optionally {@link MessageType}:
+ *   {@code
+ *    @Identifier("match-start")
+ *    public class MatchStartSubscriber implements TypedSubscriber<MatchStart> {
+ *      public void onMessage(MatchStart message) {
+ *        System.out.println("Match " + message.getId() + " started");
+ *      }
+ *    }
+ *  }
+ *
+ * <strong>Supports</strong> functional implementations:
+ *    {@code
+ *      client.subscribers()
+ *        .listenTyped("match-start", MatchStart.class,
+ *          message -> System.out.println("Match " + message.getId() + " started"));
+ *   }
+ *
+ *  Publish typed messages with {@link MongoPubSubClient#enqueue(String, Object)}:
+ *    {@code
+ *      client.enqueue("match-start", new MatchStart(42));
+ *   }
+ * </pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 18:44
+ * © mongo-pubsub - All Rights Reserved
+ */
+@FunctionalInterface
+@RequiredAnnotation(Identifier.class)
+public interface TypedSubscriber<T> {
+
+  /**
+   * Called when a message is published
+   * with the same identifier as this subscriber.
+   *
+   * @param message the message which was published
+   */
+  void onMessage(T message);
+
+  /**
+   * <p>Gets the identifier of this subscriber.</p>
+   *
+   * <strong>NOTE:</strong> If the subscriber is
+   * a functional implementation, this method must be overridden.
+   *
+   * @throws RuntimeException if the subscriber class is missing the {@link Identifier} annotation and has no overridden implementation of this method.
+   * @return the identifier of this subscriber
+   */
+  default String getIdentifier() {
+    Class<?> clazz = getClass();
+    if (clazz.isAnnotationPresent(Identifier.class))
+      return clazz
+              .getAnnotation(Identifier.class)
+              .value();
+
+    throw new RuntimeException("Subscriber class " + clazz.getName() + " is missing @Identifier annotation");
+  }
+
+  /**
+   * <p>Gets the message type of this subscriber, from its {@link MessageType}
+   * annotation or from the type argument of this interface.</p>
+   *
+   * @throws RuntimeException if the message type cannot be resolved, e.g. for functional implementations.
+   * @return the message type of this subscriber
+   */
+  @SuppressWarnings("unchecked")
+  default Class<T> getMessageType() {
+    Class<?> clazz = getClass();
+    if (clazz.isAnnotationPresent(MessageType.class))
+      return (Class<T>) clazz
+              .getAnnotation(MessageType.class)
+              .value();
+
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      for (Type type : c.getGenericInterfaces()) {
+        if (type instanceof ParameterizedType
+          && ((ParameterizedType) type).getRawType() == TypedSubscriber.class) {
+          Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+          if (argument instanceof Class)
+            return (Class<T>) argument;
+        }
+      }
+    }
+
+    throw new RuntimeException("Cannot resolve the message type of subscriber class " + clazz.getName() + ", annotate it with @MessageType");
+  }
+
+}
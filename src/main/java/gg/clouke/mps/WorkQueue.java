@@ -0,0 +1,394 @@
+package gg.clouke.mps;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import gg.acai.acava.io.Closeable;
+import gg.clouke.mps.stats.Metric;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A competing-consumer work queue, where each job is processed by exactly one node.
+ *
+ * <p>While regular payloads are broadcast to every node listening to their target, jobs are
+ * stored in their own collection and claimed atomically with {@code findOneAndUpdate}. All nodes
+ * listening to the same job target form its consumer group.
+ *
+ * <p>A claim hides the job from the other nodes for the visibility timeout. Once the worker
+ * returns, the job is acknowledged and removed. If the worker throws, the claim is released
+ * after the redelivery backoff, and if the node dies, the job is redelivered once the claim has
+ * expired. Jobs exhausting their delivery attempts are moved to the dead-letter collection.
+ *
+ * <p>The change stream of the jobs collection is only used as a wake-up signal, idle workers
+ * sleep until either a job is inserted or the earliest claim expires.
+ *
+ * <p><b>Example usage:</b></p>
+ * <pre>{@code
+ * client.workQueue()
+ *   .listenDirectly("render-map", payload -> render(payload));
+ *
+ * client.enqueueJob("render-map", Payload.empty()
+ *   .withRawParameter("map", "dust"));
+ * }</pre>
+ *
+ * @author Clouke
+ * @since 19.10.2026 13:38
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class WorkQueue implements Closeable {
+
+  /**
+   * Shared by the work queues of all clients, keeping thread names unique per process.
+   */
+  private static final ThreadFactory FACTORY = new ThreadFactoryBuilder()
+    .setNameFormat("WorkQueue-%d")
+    .build();
+
+  private static final long MAX_BACKOFF = 60_000L; // failed jobs wait in the database, not on a thread
+
+  private final MongoPubSubClient client;
+  private final MongoCollection<Document> jobs;
+  private final DeadLetters deadLetters;
+  private final Map<String, Subscriber> workers = new ConcurrentHashMap<>();
+  private final List<Thread> executors = new ArrayList<>();
+  private final Object signal = new Object();
+  private final long visibilityTimeout;
+  private final int concurrency;
+  private final int maxAttempts;
+  private final long backoff;
+  private final long reconnectBackoff;
+  private final long maxReconnectBackoff;
+  private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+  private volatile boolean running = true;
+  private boolean signaled;
+  private boolean started;
+
+  /**
+   * Constructs a new work queue.
+   *
+   * @param client the client owning this queue.
+   * @param jobs the collection holding the jobs.
+   * @param deadLetters the dead-letter store of the client.
+   * @param b the builder to configure the queue.
+   */
+  WorkQueue(MongoPubSubClient client, MongoCollection<Document> jobs, DeadLetters deadLetters, MongoClientBuilder b) {
+    this.client = client;
+    this.jobs = jobs;
+    this.deadLetters = deadLetters;
+    this.maxAttempts = Math.max(1, b.maxDeliveryAttempts);
+    this.backoff = b.redeliveryUnit.toMillis(b.redeliveryBackoff);
+    this.visibilityTimeout = b.visibilityUnit.toMillis(b.visibilityTimeout);
+    this.concurrency = Math.max(1, b.jobWorkers);
+    this.reconnectBackoff = b.reconnectBackoff;
+    this.maxReconnectBackoff = b.maxReconnectBackoff;
+  }
+
+  /**
+   * Registers a new worker to the queue.
+   *
+   * @param subscriber the worker to register, identified by its {@link Identifier}.
+   */
+  public void addListener(Subscriber subscriber) {
+    listenDirectly(subscriber.getIdentifier(), subscriber);
+  }
+
+  /**
+   * Allows functional workers to be added to the queue.
+   *
+   * @param identifier the job target the worker competes for.
+   * @param subscriber the worker.
+   */
+  public void listenDirectly(String identifier, Subscriber subscriber) {
+    workers.put(identifier, subscriber);
+    start();
+    wakeUp(); // jobs for this target may already be waiting
+  }
+
+  /**
+   * Gets an immutable map of all workers.
+   *
+   * @return an immutable map of all workers.
+   */
+  @Nonnull
+  public Map<String, Subscriber> getWorkers() {
+    return Collections.unmodifiableMap(workers);
+  }
+
+  /**
+   * Inserts a new job document.
+   *
+   * @param document the job document.
+   * @param collection the collection handle to insert the job through.
+   */
+  void insert(Document document, MongoCollection<Document> collection) {
+    collection.insertOne(document
+      .append("job:visibleAt", new Date())
+      .append("job:attempts", 0));
+  }
+
+  /**
+   * Gets the jobs collection.
+   *
+   * @return the jobs collection.
+   */
+  @Nonnull
+  MongoCollection<Document> jobs() {
+    return jobs;
+  }
+
+  /**
+   * Starts the wake-up and worker threads, once the first worker is registered.
+   */
+  private synchronized void start() {
+    if (started || !running)
+      return;
+
+    started = true;
+    jobs.createIndex(Indexes.ascending("payload:target", "job:visibleAt"));
+
+    executors.add(FACTORY.newThread(this::listen));
+    for (int i = 0; i < concurrency; i++) {
+      executors.add(FACTORY.newThread(this::work));
+    }
+    executors.forEach(Thread::start);
+  }
+
+  /**
+   * Listens for inserted jobs, waking up the workers on each insert.
+   */
+  private void listen() {
+    List<Bson> pipeline = Collections.singletonList(Aggregates.match(Filters.eq("operationType", "insert")));
+    Backoff backoff = new Backoff(reconnectBackoff, maxReconnectBackoff);
+    while (running) {
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = jobs.watch(pipeline).cursor()) {
+        this.cursor = cursor;
+        if (backoff.attempts() > 0)
+          client.metrics().increment(Metric.RECONNECTS);
+        backoff.reset();
+        wakeUp(); // inserts may have been missed while reconnecting, let the workers look for themselves
+        while (running) {
+          if (cursor.tryNext() != null)
+            wakeUp();
+        }
+      } catch (MongoException e) {
+        if (!running)
+          return;
+        client.metrics().increment(Metric.STREAM_FAILURES);
+        System.err.println("Lost the change stream of the work queue, reconnecting: " + e.getMessage());
+        if (!backoff.sleep())
+          return;
+      }
+    }
+  }
+
+  /**
+   * Claims & processes jobs until the queue is closed,
+   * sleeping until the next wake-up signal or claim expiry when there is nothing to claim.
+   */
+  private void work() {
+    while (running) {
+      try {
+        Document job = claim();
+        if (job != null) {
+          process(job);
+          continue;
+        }
+
+        await(nextVisibility());
+      } catch (MongoException e) {
+        if (!running)
+          return;
+        e.printStackTrace();
+        sleep(1000L);
+      }
+    }
+  }
+
+  /**
+   * Atomically claims the next visible job of the registered targets.
+   *
+   * @return the claimed job, or null if there is nothing to claim.
+   */
+  @Nullable
+  private Document claim() {
+    if (workers.isEmpty())
+      return null;
+
+    Date now = new Date();
+    return jobs.findOneAndUpdate(Filters.and(
+        Filters.in("payload:target", workers.keySet()),
+        Filters.lte("job:visibleAt", now)),
+      Updates.combine(
+        Updates.set("job:visibleAt", new Date(now.getTime() + visibilityTimeout)),
+        Updates.set("job:owner", client.nodeId()),
+        Updates.set("job:claim", new ObjectId()),
+        Updates.inc("job:attempts", 1)),
+      new FindOneAndUpdateOptions()
+        .sort(Sorts.ascending("job:visibleAt"))
+        .returnDocument(ReturnDocument.AFTER));
+  }
+
+  /**
+   * Processes a claimed job, acknowledging it on success. On failure, the job is released
+   * after the redelivery backoff, or dead-lettered once it exhausted its attempts.
+   *
+   * @param job the claimed job.
+   */
+  private void process(Document job) {
+    Bson claim = Filters.and(
+      Filters.eq("_id", job.get("_id")),
+      Filters.eq("job:claim", job.get("job:claim")));
+
+    String target = job.getString("payload:target");
+    Subscriber worker = workers.get(target);
+    try {
+      if (worker == null)
+        throw new IllegalStateException("Claimed job of unregistered target " + target);
+
+      worker.onMessage(client.subscribers().payload(job));
+    } catch (RuntimeException e) {
+      client.metrics().increment(Metric.FAILED_ATTEMPTS);
+      int attempts = job.getInteger("job:attempts", 1);
+      if (attempts >= maxAttempts) {
+        deadLetters.store(target, job, attempts, e);
+        jobs.deleteOne(claim);
+        return;
+      }
+
+      client.metrics().increment(Metric.REDELIVERED);
+      jobs.updateOne(claim, Updates.combine(
+        Updates.set("job:visibleAt", new Date(System.currentTimeMillis() + Backoff.delay(backoff, MAX_BACKOFF, attempts))),
+        Updates.unset("job:claim")));
+      return;
+    }
+
+    /*
+     * only acknowledge our own claim, the job may have been redelivered if it took too long.
+     */
+    jobs.deleteOne(claim);
+    client.metrics().increment(Metric.DELIVERED);
+  }
+
+  /**
+   * Gets the time the earliest claimed job of the registered targets becomes visible again.
+   *
+   * @return the time in milliseconds, or -1 if there are no jobs.
+   */
+  private long nextVisibility() {
+    if (workers.isEmpty())
+      return -1L;
+
+    Document next = jobs.find(Filters.in("payload:target", workers.keySet()))
+      .sort(Sorts.ascending("job:visibleAt"))
+      .projection(Projections.include("job:visibleAt"))
+      .first();
+
+    Date visibleAt = next == null ? null : next.getDate("job:visibleAt");
+    return visibleAt == null ? -1L : visibleAt.getTime();
+  }
+
+  /**
+   * Waits for a wake-up signal, or until the given time has passed.
+   *
+   * @param until the time in milliseconds to wait until, or -1 to wait for a signal only.
+   */
+  private void await(long until) {
+    synchronized (signal) {
+      long wait = until == -1L ? 0L : until - System.currentTimeMillis();
+      if (until != -1L && wait <= 0L)
+        return;
+
+      try {
+        if (!signaled && running)
+          signal.wait(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        signaled = false;
+      }
+    }
+  }
+
+  /**
+   * Wakes up the workers.
+   */
+  private void wakeUp() {
+    synchronized (signal) {
+      signaled = true;
+      signal.notifyAll();
+    }
+  }
+
+  private void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Closes this queue, letting the workers finish the job they are processing.
+   * Jobs which were claimed but not acknowledged are redelivered once their claim expires.
+   *
+   * @param timeout the maximum time to wait for the workers.
+   * @param unit the unit of the timeout.
+   */
+  void close(long timeout, TimeUnit unit) {
+    synchronized (this) {
+      running = false;
+    }
+    wakeUp();
+
+    MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = this.cursor;
+    if (cursor != null) {
+      try {
+        cursor.close();
+      } catch (MongoException ignored) {
+        // the cursor is already closed
+      }
+    }
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Thread executor : executors) {
+      try {
+        executor.join(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      executor.interrupt();
+    }
+  }
+
+  /**
+   * Closes this queue, letting the workers finish the job they are processing for up to 1 second.
+   */
+  @Override
+  public void close() {
+    close(1L, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,141 @@
+package gg.clouke.mps.codec;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bridges Gson trees and BSON values, allowing objects to be written as native
+ * nested documents & arrays instead of Json strings.
+ *
+ * <p>Json objects map to {@link Document}s, arrays to {@link List}s and primitives to their
+ * matching BSON type. Numbers without a fraction are written as int32 or int64 values.
+ *
+ * @author Clouke
+ * @since 19.10.2026 18:05
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class BsonBridge {
+
+  private BsonBridge() {
+  }
+
+  /**
+   * Converts a Gson tree to a BSON value.
+   *
+   * @param element the Gson tree.
+   * @return a {@link Document}, a {@link List}, a primitive value, or null.
+   */
+  public static Object toBson(JsonElement element) {
+    if (element == null || element.isJsonNull())
+      return null;
+
+    if (element.isJsonObject()) {
+      Document document = new Document();
+      for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+        document.put(entry.getKey(), toBson(entry.getValue()));
+      }
+      return document;
+    }
+
+    if (element.isJsonArray()) {
+      JsonArray array = element.getAsJsonArray();
+      List<Object> list = new ArrayList<>(array.size());
+      for (JsonElement value : array) {
+        list.add(toBson(value));
+      }
+      return list;
+    }
+
+    JsonPrimitive primitive = element.getAsJsonPrimitive();
+    if (primitive.isBoolean())
+      return primitive.getAsBoolean();
+    if (primitive.isString())
+      return primitive.getAsString();
+
+    return toBson(primitive.getAsNumber());
+  }
+
+  /**
+   * Converts a number to its narrowest matching BSON number.
+   *
+   * @param number the number.
+   * @return an {@link Integer}, {@link Long} or {@link Double}.
+   */
+  private static Object toBson(Number number) {
+    if (number instanceof Integer || number instanceof Long || number instanceof Double)
+      return number;
+    if (number instanceof Short || number instanceof Byte)
+      return number.intValue();
+    if (number instanceof Float)
+      return number.doubleValue();
+
+    String value = number.toString(); // lazily parsed numbers
+    if (value.indexOf('.') == -1 && value.indexOf('e') == -1 && value.indexOf('E') == -1) {
+      try {
+        long l = Long.parseLong(value);
+        return l == (int) l ? (Object) (int) l : (Object) l;
+      } catch (NumberFormatException ignored) {
+        // does not fit in a long, fall back to a double
+      }
+    }
+    return number.doubleValue();
+  }
+
+  /**
+   * Converts a BSON value to a Gson tree.
+   *
+   * @param value the BSON value, as decoded by the driver.
+   * @return the Gson tree.
+   */
+  public static JsonElement toJson(Object value) {
+    if (value == null)
+      return JsonNull.INSTANCE;
+
+    if (value instanceof Map) {
+      JsonObject object = new JsonObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        object.add(String.valueOf(entry.getKey()), toJson(entry.getValue()));
+      }
+      return object;
+    }
+
+    if (value instanceof Iterable) {
+      JsonArray array = new JsonArray();
+      for (Object element : (Iterable<?>) value) {
+        array.add(toJson(element));
+      }
+      return array;
+    }
+
+    if (value instanceof String)
+      return new JsonPrimitive((String) value);
+    if (value instanceof Boolean)
+      return new JsonPrimitive((Boolean) value);
+    if (value instanceof Decimal128)
+      return new JsonPrimitive(((Decimal128) value).bigDecimalValue());
+    if (value instanceof Number)
+      return new JsonPrimitive((Number) value);
+    if (value instanceof Date)
+      return new JsonPrimitive(((Date) value).getTime());
+    if (value instanceof ObjectId)
+      return new JsonPrimitive(((ObjectId) value).toHexString());
+    if (value instanceof Binary)
+      return new JsonPrimitive(Base64.getEncoder().encodeToString(((Binary) value).getData()));
+
+    return new JsonPrimitive(value.toString());
+  }
+
+}
@@ -0,0 +1,90 @@
+package gg.clouke.mps.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import gg.clouke.mps.GsonSpec;
+import org.bson.Document;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled codec mapping a message type straight from & to its BSON document.
+ *
+ * <p>The Gson {@link TypeAdapter} of the message type is resolved once, when the codec is
+ * created, and the message is bridged through a Gson tree with {@link BsonBridge}. Messages
+ * never pass through an intermediate Json string or string map.
+ *
+ * <p>Codecs are cached per message type, use {@link #of(Class)} to obtain one.
+ *
+ * @author Clouke
+ * @since 19.10.2026 18:24
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class MessageCodec<T> {
+
+  /**
+   * The field holding the message of a typed payload.
+   */
+  public static final String FIELD = "payload:message";
+
+  private static final Map<Class<?>, MessageCodec<?>> CODECS = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the codec of the given message type, creating it on first use.
+   *
+   * @param type the message type.
+   * @param <T> the message type.
+   * @return the codec of the message type.
+   */
+  @Nonnull @SuppressWarnings("unchecked")
+  public static <T> MessageCodec<T> of(Class<T> type) {
+    return (MessageCodec<T>) CODECS.computeIfAbsent(type, MessageCodec::new);
+  }
+
+  private final Class<T> type;
+  private final TypeAdapter<T> adapter;
+
+  private MessageCodec(Class<T> type) {
+    Gson gson = GsonSpec.getGson();
+    this.type = type;
+    this.adapter = gson.getAdapter(type);
+  }
+
+  /**
+   * Gets the message type of this codec.
+   *
+   * @return the message type.
+   */
+  @Nonnull
+  public Class<T> type() {
+    return type;
+  }
+
+  /**
+   * Encodes a message to a document holding it as a native nested document.
+   *
+   * @param message the message to encode.
+   * @return the document holding the message.
+   */
+  @Nonnull
+  public Document encode(T message) {
+    return new Document(FIELD, BsonBridge.toBson(adapter.toJsonTree(message)));
+  }
+
+  /**
+   * Decodes a message from its document. Documents published without a typed message
+   * are decoded from their top-level fields.
+   *
+   * @param document the document holding the message.
+   * @return the decoded message.
+   */
+  public T decode(Document document) {
+    Object message = document.get(FIELD);
+    JsonElement tree = BsonBridge.toJson(message instanceof Document ? message : document);
+    return adapter.fromJsonTree(tree);
+  }
+
+}
@@ -0,0 +1,127 @@
+package gg.clouke.mps.stats;
+
+/**
+ * Represents the counters tracked by {@link Metrics}.
+ *
+ * @author Clouke
+ * @since 19.10.2026 15:02
+ * © mongo-pubsub - All Rights Reserved
+ */
+public enum Metric {
+
+  /**
+   * Payloads delivered to a subscriber without failing.
+   */
+  DELIVERED,
+
+  /**
+   * Delivery attempts where decoding the payload or the subscriber failed.
+   */
+  FAILED_ATTEMPTS,
+
+  /**
+   * Payloads redelivered after a failed attempt.
+   */
+  REDELIVERED,
+
+  /**
+   * Payloads moved to the dead-letter collection after exhausting their attempts.
+   */
+  DEAD_LETTERED,
+
+  /**
+   * Payloads received for a target without a subscriber on this node.
+   */
+  UNROUTED,
+
+  /**
+   * Restarts of the watcher loop after it failed unexpectedly.
+   */
+  WATCHER_RESTARTS,
+
+  /**
+   * Change stream errors, such as primary stepdowns, network errors or lost cursors.
+   */
+  STREAM_FAILURES,
+
+  /**
+   * Change streams reopened from their resume token after a failure.
+   */
+  RECONNECTS,
+
+  /**
+   * Total time in milliseconds spent reconnecting change streams.
+   */
+  DISCONNECTED_MILLIS,
+
+  /**
+   * Payloads allocated by the payload pool because no idle payload was available.
+   */
+  PAYLOADS_ALLOCATED,
+
+  /**
+   * Pooled payloads garbage collected without being closed, only counted with leak detection enabled.
+   */
+  PAYLOAD_LEAKS,
+
+  /**
+   * Gaps in the sequence of a publisher which could not be filled within the reorder window.
+   */
+  SEQUENCE_GAPS,
+
+  /**
+   * Payloads given up on as part of a sequence gap.
+   */
+  MISSED_PAYLOADS,
+
+  /**
+   * Payloads which arrived ahead of their sequence, and were delivered from the reorder buffer.
+   */
+  REORDERED,
+
+  /**
+   * Payloads dropped for arriving behind their sequence, e.g. duplicates or payloads given up on.
+   */
+  STALE_PAYLOADS,
+
+  /**
+   * Payloads dropped by the deduplication window, having been received before.
+   */
+  DUPLICATES,
+
+  /**
+   * Payloads given up on by a batched publish lane or an encode worker, after their caller returned.
+   */
+  PUBLISH_FAILURES,
+
+  /**
+   * Payloads of the lower priority classes moved to the dead-letter collection because their dispatch lane was full.
+   */
+  SPILLED,
+
+  /**
+   * Payloads scheduled for later delivery by this node.
+   */
+  SCHEDULED,
+
+  /**
+   * Scheduled payloads released by this node, while it was the releasing leader.
+   */
+  RELEASED,
+
+  /**
+   * Times the change stream was reopened to apply new settings of the adaptive cursor.
+   */
+  CURSOR_RETUNES,
+
+  /**
+   * Payloads enqueued by this node to a target no node was listening to, see {@link gg.clouke.mps.PresencePolicy}.
+   */
+  UNLISTENED,
+
+  /**
+   * Times the partitions owned by this node changed, see {@link gg.clouke.mps.MongoClientBuilder#partitionGroup}.
+   */
+  REBALANCES
+
+}
@@ -0,0 +1,114 @@
+package gg.clouke.mps.stats;
+
+import gg.clouke.mps.Priority;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the counters of a single client, each client has its own instance.
+ *
+ * <p>Counters are backed by {@link LongAdder}s, making them cheap to
+ * increment from the watcher & worker threads. Queue times are kept per
+ * {@link Priority} class, one for each dispatch lane.
+ *
+ * @author Clouke
+ * @since 19.10.2026 15:04
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class Metrics {
+
+  private final LongAdder[] counters;
+  private final Map<Priority, QueueTime> queueTimes = new EnumMap<>(Priority.class);
+
+  /**
+   * Constructs a new set of counters, all starting at zero.
+   */
+  public Metrics() {
+    Metric[] metrics = Metric.values();
+    this.counters = new LongAdder[metrics.length];
+    for (Metric metric : metrics) {
+      counters[metric.ordinal()] = new LongAdder();
+    }
+    for (Priority priority : Priority.values()) {
+      queueTimes.put(priority, new QueueTime());
+    }
+  }
+
+  /**
+   * Increments the given counter by one.
+   *
+   * @param metric the counter to increment.
+   */
+  public void increment(Metric metric) {
+    counters[metric.ordinal()].increment();
+  }
+
+  /**
+   * Adds the given amount to the given counter.
+   *
+   * @param metric the counter to add to.
+   * @param amount the amount to add.
+   */
+  public void add(Metric metric, long amount) {
+    counters[metric.ordinal()].add(amount);
+  }
+
+  /**
+   * Gets the current value of the given counter.
+   *
+   * @param metric the counter.
+   * @return the current value of the counter.
+   */
+  public long get(Metric metric) {
+    return counters[metric.ordinal()].sum();
+  }
+
+  /**
+   * Gets the queue time of the dispatch lane of the given priority class.
+   *
+   * @param priority the priority class of the lane.
+   * @return the queue time of the lane.
+   */
+  @Nonnull
+  public QueueTime queueTime(Priority priority) {
+    return queueTimes.get(priority);
+  }
+
+  /**
+   * Gets the queue times of all dispatch lanes.
+   *
+   * @return an immutable map of every priority class and the queue time of its lane.
+   */
+  @Nonnull
+  public Map<Priority, QueueTime> queueTimes() {
+    return Collections.unmodifiableMap(queueTimes);
+  }
+
+  /**
+   * Takes a snapshot of all counters.
+   *
+   * @return an immutable map of every counter and its current value.
+   */
+  @Nonnull
+  public Map<Metric, Long> snapshot() {
+    Map<Metric, Long> snapshot = new EnumMap<>(Metric.class);
+    for (Metric metric : Metric.values()) {
+      snapshot.put(metric, get(metric));
+    }
+    return Collections.unmodifiableMap(snapshot);
+  }
+
+  /**
+   * Gets the counters as a string.
+   *
+   * @return the string representation of the counters.
+   */
+  @Override
+  public String toString() {
+    return "Metrics" + snapshot();
+  }
+
+}
@@ -0,0 +1,74 @@
+package gg.clouke.mps.stats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the time payloads spent queued in a single dispatch lane,
+ * from being received by the watcher until being dispatched.
+ *
+ * @author Clouke
+ * @since 19.10.2026 21:09
+ * © mongo-pubsub - All Rights Reserved
+ */
+public final class QueueTime {
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+  /**
+   * Records the queue time of a dispatched payload.
+   *
+   * @param nanos the time the payload spent queued in nanoseconds.
+   */
+  public void record(long nanos) {
+    count.increment();
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  /**
+   * Gets the amount of payloads dispatched from the lane.
+   *
+   * @return the amount of dispatched payloads.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Gets the average time payloads spent queued.
+   *
+   * @param unit the unit to get the time in.
+   * @return the average queue time, or 0 if no payload was dispatched.
+   */
+  public long average(TimeUnit unit) {
+    long count = count();
+    return count == 0L ? 0L : unit.convert(total.sum() / count, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the longest time a payload spent queued.
+   *
+   * @param unit the unit to get the time in.
+   * @return the longest queue time.
+   */
+  public long max(TimeUnit unit) {
+    return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Gets the queue time as a string.
+   *
+   * @return the string representation of the queue time.
+   */
+  @Override
+  public String toString() {
+    return "QueueTime{count=" + count()
+      + ", avgMicros=" + average(TimeUnit.MICROSECONDS)
+      + ", maxMicros=" + max(TimeUnit.MICROSECONDS) + "}";
+  }
+
+}